@@ -0,0 +1,37 @@
+package me.exrates.chartservice.model;
+
+import me.exrates.chartservice.model.enums.IntervalType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackDealIntervalBenchmark {
+
+    @Param({"30 MINUTE", "4 HOUR", "1 MONTH"})
+    public String interval;
+
+    @Benchmark
+    public BackDealInterval parse() {
+        return BackDealInterval.parse(interval);
+    }
+
+    @Benchmark
+    public IntervalType convert() {
+        return IntervalType.convert("WEEK", 3);
+    }
+}
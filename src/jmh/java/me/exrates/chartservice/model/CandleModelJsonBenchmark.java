@@ -0,0 +1,61 @@
+package me.exrates.chartservice.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.exrates.chartservice.configuration.CommonConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CandleModelJsonBenchmark {
+
+    private ObjectMapper mapper;
+    private CandleModel model;
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = new CommonConfiguration().mapper();
+        model = CandleModel.builder()
+                .openRate(new BigDecimal("9871.12345678"))
+                .closeRate(new BigDecimal("9902.5"))
+                .highRate(new BigDecimal("9950.00000001"))
+                .lowRate(new BigDecimal("9850.1"))
+                .volume(new BigDecimal("152.34000000"))
+                .candleOpenTime(LocalDateTime.of(2019, 7, 10, 12, 30))
+                .build();
+        json = mapper.writeValueAsString(model);
+    }
+
+    @Benchmark
+    public String serialize() throws IOException {
+        return mapper.writeValueAsString(model);
+    }
+
+    @Benchmark
+    public CandleModel deserialize() throws IOException {
+        return mapper.readValue(json, CandleModel.class);
+    }
+
+    @Benchmark
+    public CandleModel roundTrip() throws IOException {
+        return mapper.readValue(mapper.writeValueAsString(model), CandleModel.class);
+    }
+}
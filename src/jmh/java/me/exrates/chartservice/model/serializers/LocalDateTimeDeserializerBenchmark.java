@@ -0,0 +1,48 @@
+package me.exrates.chartservice.model.serializers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalDateTimeDeserializerBenchmark {
+
+    @Param({"2019-07-10T12:30:15", "2019-07-10 12:30:15", "2019-07-10T12:30:15.123Z", "2019-07-10 12:30:15.123456"})
+    public String value;
+
+    private final JsonFactory factory = new JsonFactory();
+    private final LocalDateTimeDeserializer deserializer = new LocalDateTimeDeserializer();
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = "\\"" + value + "\\"";
+    }
+
+    @Benchmark
+    public LocalDateTime deserialize() throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            parser.nextToken();
+            return deserializer.deserialize(parser, null);
+        }
+    }
+}
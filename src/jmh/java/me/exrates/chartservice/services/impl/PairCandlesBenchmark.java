@@ -0,0 +1,69 @@
+package me.exrates.chartservice.services.impl;
+
+import me.exrates.chartservice.model.TradeDataDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of folding one trade into the open candles of every supported interval, trades are ten seconds apart
+ * so the run includes rollovers of the finer intervals at their real rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PairCandlesBenchmark {
+
+    private static final int TRADES = 1 << 16;
+
+    private PairCandles candles;
+    private TradeDataDto[] trades;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        candles = new PairCandles(TradeDataServiceImpl.SUPPORTED_INTERVALS, TradeDataServiceImpl.ROLLUP_SOURCES);
+        trades = new TradeDataDto[TRADES];
+
+        LocalDateTime time = LocalDateTime.of(2019, 1, 1, 0, 0);
+        for (int i = 0; i < TRADES; i++) {
+            TradeDataDto dto = new TradeDataDto();
+            dto.setOrderId(i);
+            dto.setPairName("BTC/USD");
+            dto.setExrate(new BigDecimal("9800.5").add(BigDecimal.valueOf(i % 100)));
+            dto.setAmountBase(new BigDecimal("0.0125"));
+            dto.setTradeDate(time.plusSeconds(10L * i));
+            trades[i] = dto;
+        }
+    }
+
+    @Benchmark
+    public void apply() {
+        candles.apply(trades[next]);
+        if (++next == TRADES) {
+            next = 0;
+            candles = new PairCandles(TradeDataServiceImpl.SUPPORTED_INTERVALS, TradeDataServiceImpl.ROLLUP_SOURCES);
+        }
+    }
+
+    @Benchmark
+    public List<PairCandles.PendingCandle> applyAndDrain() {
+        apply();
+        return candles.drain();
+    }
+}
@@ -0,0 +1,78 @@
+package me.exrates.chartservice.services.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.exrates.chartservice.configuration.CommonConfiguration;
+import me.exrates.chartservice.model.CandleModel;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of one page of search hits, built from canned candle documents as the cluster returns them. The
+ * private decoder is reached through {@link SearchResults}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchResultBenchmark {
+
+    @Param({"10", "1000"})
+    public int hitsCount;
+
+    private ElasticsearchProcessingServiceImpl service;
+    private SearchHit[] hits;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = new CommonConfiguration().mapper();
+        service = new ElasticsearchProcessingServiceImpl(null, mapper, null, null, null, new SimpleMeterRegistry(), hitsCount, 5000);
+
+        LocalDateTime time = LocalDateTime.of(2019, 1, 1, 0, 0);
+        hits = new SearchHit[hitsCount];
+        for (int i = 0; i < hitsCount; i++) {
+            CandleModel model = CandleModel.builder()
+                    .openRate(new BigDecimal("9871.12345678"))
+                    .closeRate(new BigDecimal("9902.5"))
+                    .highRate(new BigDecimal("9950.00000001"))
+                    .lowRate(new BigDecimal("9850.1"))
+                    .volume(new BigDecimal("152.34").add(BigDecimal.valueOf(i)))
+                    .candleOpenTime(time.plusMinutes(30L * i))
+                    .build();
+            hits[i] = new SearchHit(i, String.valueOf(i), new Text("_doc"), Collections.emptyMap())
+                    .sourceRef(new BytesArray(mapper.writeValueAsBytes(model)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Benchmark
+    public List<CandleModel> getSearchResult() {
+        return SearchResults.getSearchResult(service, hits);
+    }
+}
@@ -0,0 +1,42 @@
+package me.exrates.chartservice.services.impl;
+
+import me.exrates.chartservice.model.CandleModel;
+import org.elasticsearch.search.SearchHit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Reaches the private hit decoding of {@link ElasticsearchProcessingServiceImpl} for the benchmarks, through a
+ * method handle resolved once, so the service keeps it private.
+ */
+final class SearchResults {
+
+    private static final MethodHandle GET_SEARCH_RESULT;
+
+    static {
+        try {
+            Method method = ElasticsearchProcessingServiceImpl.class.getDeclaredMethod("getSearchResult", SearchHit[].class);
+            method.setAccessible(true);
+            GET_SEARCH_RESULT = MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private SearchResults() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<CandleModel> getSearchResult(ElasticsearchProcessingServiceImpl service, SearchHit[] hits) {
+        try {
+            return (List<CandleModel>) GET_SEARCH_RESULT.invokeExact(service, hits);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package me.exrates.chartservice.configuration;
 
-import com.antkorwin.xsync.XSync;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import me.exrates.chartservice.model.serializers.CandleCodec;
+import me.exrates.chartservice.model.serializers.DeltaVarintCandleCodec;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 
 @Configuration
 public class CommonConfiguration {
 
+    @Primary
     @Bean("jsonMapper")
     public ObjectMapper mapper() {
         return new ObjectMapper()
@@ -16,8 +24,32 @@ public class CommonConfiguration {
                 .registerModule(new JavaTimeModule());
     }
 
+    @Bean("cborMapper")
+    public ObjectMapper cborMapper() {
+        return new ObjectMapper(new CBORFactory())
+                .findAndRegisterModules()
+                .registerModule(new JavaTimeModule());
+    }
+
+    @Bean("smileMapper")
+    public ObjectMapper smileMapper() {
+        return new ObjectMapper(new SmileFactory())
+                .findAndRegisterModules()
+                .registerModule(new JavaTimeModule());
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(@Qualifier("cborMapper") ObjectMapper mapper) {
+        return new MappingJackson2CborHttpMessageConverter(mapper);
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(@Qualifier("smileMapper") ObjectMapper mapper) {
+        return new MappingJackson2SmileHttpMessageConverter(mapper);
+    }
+
     @Bean
-    public XSync<String> xSync() {
-        return new XSync<>();
+    public CandleCodec candleCodec() {
+        return new DeltaVarintCandleCodec();
     }
 }
\ No newline at end of file
@@ -1,12 +1,17 @@
 package me.exrates.chartservice.configuration;
 
 import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Arrays;
+
+import static java.util.Objects.isNull;
+
 @Configuration
 public class ElasticsearchConfig {
 
@@ -16,9 +21,72 @@ public class ElasticsearchConfig {
     @Value("${elasticsearch.port}")
     private Integer elasticsearchPort;
 
+    /**
+     * Nodes of the cluster as {@code host:port} or urls, requests are spread over them and dead nodes are
+     * skipped until they come back. The single host and port are used if empty.
+     */
+    @Value("${elasticsearch.hosts:}")
+    private String[] elasticsearchHosts;
+
+    @Value("${elasticsearch.client.max-connections:100}")
+    private Integer maxConnections;
+
+    @Value("${elasticsearch.client.max-connections-per-route:50}")
+    private Integer maxConnectionsPerRoute;
+
+    @Value("${elasticsearch.client.io-threads:0}")
+    private Integer ioThreads;
+
+    @Value("${elasticsearch.client.connect-timeout:1000}")
+    private Integer connectTimeout;
+
+    @Value("${elasticsearch.client.socket-timeout:30000}")
+    private Integer socketTimeout;
+
+    @Value("${elasticsearch.client.connection-request-timeout:500}")
+    private Integer connectionRequestTimeout;
+
+    @Value("${elasticsearch.client.keep-alive:60000}")
+    private Long keepAlive;
+
+    /**
+     * The client sends requests as they are, compression applies to the bulk bodies only, which the
+     * {@link me.exrates.chartservice.services.impl.ElasticsearchBulkWriter} gzips itself and which carry every
+     * write of the service. The async client of this version takes the request body before interceptors run,
+     * so it cannot be swapped for a compressed one there, and searches and gets are small anyway.
+     */
     @Bean(destroyMethod = "close")
     public RestHighLevelClient client() {
         return new RestHighLevelClient(
-                RestClient.builder(new HttpHost(elasticsearchHost, elasticsearchPort)));
+                RestClient.builder(getHosts())
+                        .setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder
+                                .setMaxConnTotal(maxConnections)
+                                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                                .setKeepAliveStrategy((response, context) -> keepAlive)
+                                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                        .setIoThreadCount(ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors())
+                                        .setSoKeepAlive(true)
+                                        .build()))
+                        .setRequestConfigCallback(requestConfigBuilder -> requestConfigBuilder
+                                .setConnectTimeout(connectTimeout)
+                                .setSocketTimeout(socketTimeout)
+                                .setConnectionRequestTimeout(connectionRequestTimeout)));
+    }
+
+    private HttpHost[] getHosts() {
+        HttpHost[] hosts = isNull(elasticsearchHosts)
+                ? new HttpHost[0]
+                : Arrays.stream(elasticsearchHosts)
+                .map(String::trim)
+                .filter(host -> !host.isEmpty())
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+        if (hosts.length > 0) {
+            return hosts;
+        }
+        if (isNull(elasticsearchHost) || elasticsearchHost.trim().isEmpty() || isNull(elasticsearchPort)) {
+            throw new IllegalStateException("No elasticsearch nodes configured, set elasticsearch.hosts or elasticsearch.host and elasticsearch.port");
+        }
+        return new HttpHost[]{new HttpHost(elasticsearchHost.trim(), elasticsearchPort)};
     }
 }
@@ -1,8 +1,17 @@
 package me.exrates.chartservice.configuration;
 
 
+import me.exrates.chartservice.service.messaging.BatchRabbitListener;
+import me.exrates.chartservice.services.PairOwnershipService;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
@@ -11,6 +20,21 @@ import org.springframework.messaging.handler.annotation.support.DefaultMessageHa
 @Configuration
 public class RabbitMQConfig implements RabbitListenerConfigurer {
 
+    @Value("${spring.rabbitmq.tradestopic}")
+    private String tradesTopic;
+
+    @Value("${spring.rabbitmq.batch.size:500}")
+    private int batchSize;
+
+    @Value("${spring.rabbitmq.batch.receive-timeout:100}")
+    private long receiveTimeout;
+
+    @Value("${cluster.queue-expires:600000}")
+    private int queueExpires;
+
+    @Value("${cluster.forward-ttl:60000}")
+    private int forwardTtl;
+
     @Bean
     public MappingJackson2MessageConverter jackson2Converter() {
         return new MappingJackson2MessageConverter();
@@ -23,6 +47,39 @@ public class RabbitMQConfig implements RabbitListenerConfigurer {
         return factory;
     }
 
+    /**
+     * Single consumer keeps the queue order, the parallelism comes from the pair workers.
+     */
+    @Bean
+    @ConditionalOnProperty(value = "spring.rabbitmq.batch.enabled", havingValue = "true")
+    public SimpleMessageListenerContainer batchTradesListenerContainer(ConnectionFactory connectionFactory,
+                                                                       BatchRabbitListener batchRabbitListener) {
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueueNames(tradesTopic);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        container.setConcurrentConsumers(1);
+        container.setPrefetchCount(batchSize * 2);
+        container.setReceiveTimeout(receiveTimeout);
+        container.setMessageListener(batchRabbitListener);
+        return container;
+    }
+
+    /**
+     * Queue of the trades forwarded to this node by the other nodes, removed by the broker some time after
+     * the node is gone. A trade not taken within the forward ttl is dead-lettered back to the trades queue, so
+     * the trades of a crashed node reach the next owner of their pairs before the queue is removed.
+     */
+    @Bean
+    @ConditionalOnProperty(value = "cluster.enabled", havingValue = "true")
+    public Queue nodeTradesQueue(PairOwnershipService pairOwnershipService) {
+        return QueueBuilder.durable(pairOwnershipService.getNodeQueue())
+                .withArgument("x-expires", Math.max(queueExpires, forwardTtl * 2))
+                .withArgument("x-message-ttl", forwardTtl)
+                .withArgument("x-dead-letter-exchange", "")
+                .withArgument("x-dead-letter-routing-key", tradesTopic)
+                .build();
+    }
+
     @Override
     public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
         registrar.setMessageHandlerMethodFactory(myHandlerMethodFactory());
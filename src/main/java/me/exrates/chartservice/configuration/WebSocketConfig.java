@@ -0,0 +1,30 @@
+package me.exrates.chartservice.configuration;
+
+import me.exrates.chartservice.service.messaging.CandlesWebSocketHandler;
+import me.exrates.chartservice.service.messaging.TickersWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final CandlesWebSocketHandler candlesWebSocketHandler;
+    private final TickersWebSocketHandler tickersWebSocketHandler;
+
+    public WebSocketConfig(CandlesWebSocketHandler candlesWebSocketHandler,
+                           TickersWebSocketHandler tickersWebSocketHandler) {
+        this.candlesWebSocketHandler = candlesWebSocketHandler;
+        this.tickersWebSocketHandler = tickersWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(candlesWebSocketHandler, "/ws/candles")
+                .setAllowedOrigins("*");
+        registry.addHandler(tickersWebSocketHandler, "/ws/tickers")
+                .setAllowedOrigins("*");
+    }
+}
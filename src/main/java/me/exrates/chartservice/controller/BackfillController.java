@@ -0,0 +1,40 @@
+package me.exrates.chartservice.controller;
+
+import me.exrates.chartservice.services.BackfillService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+@RestController
+public class BackfillController {
+
+    private final BackfillService backfillService;
+
+    @Autowired
+    public BackfillController(BackfillService backfillService) {
+        this.backfillService = backfillService;
+    }
+
+    /**
+     * Starts rebuilding candles from the exchange database, from the saved checkpoints or, with {@code reset},
+     * from the first order of every pair.
+     */
+    @PostMapping("/backfill")
+    public ResponseEntity<Void> start(@RequestParam(value = "reset", defaultValue = "false") boolean reset) {
+        return backfillService.start(reset)
+                ? ResponseEntity.accepted().build()
+                : ResponseEntity.status(HttpStatus.CONFLICT).build();
+    }
+
+    @GetMapping("/backfill")
+    public Map<String, LocalDateTime> getCheckpoints() {
+        return backfillService.getCheckpoints();
+    }
+}
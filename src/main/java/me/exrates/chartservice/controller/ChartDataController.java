@@ -1,16 +1,78 @@
 package me.exrates.chartservice.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TickerDto;
+import me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException;
+import me.exrates.chartservice.model.exceptions.UnsupportedIntervalTypeException;
+import me.exrates.chartservice.services.ChartDataService;
+import me.exrates.chartservice.services.TickerService;
+import me.exrates.chartservice.utils.TimeUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
 
 @RestController
 public class ChartDataController {
 
+    private static final String CBOR_VALUE = "application/cbor";
+    private static final String SMILE_VALUE = "application/x-jackson-smile";
+    private static final MediaType CBOR = MediaType.parseMediaType(CBOR_VALUE);
+    private static final MediaType SMILE = MediaType.parseMediaType(SMILE_VALUE);
+
     private final Environment env;
+    private final ChartDataService chartDataService;
+    private final TickerService tickerService;
+    private final ObjectMapper mapper;
+    private final ObjectMapper cborMapper;
+    private final ObjectMapper smileMapper;
+    private final long settleTime;
 
-    public ChartDataController(Environment env) {
+    public ChartDataController(Environment env,
+                               ChartDataService chartDataService,
+                               TickerService tickerService,
+                               @Qualifier("jsonMapper") ObjectMapper mapper,
+                               @Qualifier("cborMapper") ObjectMapper cborMapper,
+                               @Qualifier("smileMapper") ObjectMapper smileMapper,
+                               @Value("${candles.late-window:300000}") long lateWindow,
+                               @Value("${candles.roll-delay:2000}") long rollDelay,
+                               @Value("${candles.flush-delay:1000}") long flushDelay) {
         this.env = env;
+        this.chartDataService = chartDataService;
+        this.tickerService = tickerService;
+        this.mapper = mapper;
+        this.cborMapper = cborMapper;
+        this.smileMapper = smileMapper;
+        this.settleTime = lateWindow + rollDelay + flushDelay;
     }
 
     @GetMapping("/status/check")
@@ -19,4 +81,181 @@ public class ChartDataController {
         return "Working on port " + env.getProperty("local.server.port");
     }
 
+    /**
+     * Returns candles opened in [from, to) as {@link me.exrates.chartservice.model.CandlesDataDto} json, or cbor or
+     * smile if the client accepts them, only the latest {@code limit} of them if a limit is given.
+     * Ranges ending before the late trade window, the roll delay and the flush delay never change and are cacheable
+     * for a long time. Later candles may still be written or revised, so other ranges are revalidated by an ETag
+     * built from the state of the candles within that time.
+     * With {@code fill} periods without trades are returned as flat candles carrying the previous close, with
+     * {@code maxPoints} the candles are taken from the coarsest interval that keeps their number within it,
+     * the interval of the response tells which one.
+     * The first candles are read before the response is sent, so a range that cannot be read while elasticsearch
+     * is degraded is answered with 503 instead of a shortened range that would be cached. A page failing later
+     * leaves the body unterminated, never a complete looking document.
+     */
+    @GetMapping(value = "/data/range", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, CBOR_VALUE, SMILE_VALUE})
+    public ResponseEntity<StreamingResponseBody> getRange(@RequestParam("pair") String pairName,
+                                                          @RequestParam("interval") String intervalString,
+                                                          @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                          @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                                          @RequestParam(value = "fill", defaultValue = "false") boolean fill,
+                                                          @RequestParam(value = "maxPoints", required = false) Integer maxPoints,
+                                                          WebRequest webRequest) {
+        if (!isNull(maxPoints) && maxPoints <= 0) {
+            throw new IllegalArgumentException("Max points must be positive");
+        }
+        final BackDealInterval interval = isNull(maxPoints)
+                ? BackDealInterval.parse(intervalString)
+                : chartDataService.getFittingInterval(BackDealInterval.parse(intervalString), from, to, maxPoints);
+        final MediaType mediaType = selectMediaType(webRequest.getHeader(HttpHeaders.ACCEPT));
+        final ObjectMapper bodyMapper = CBOR.equals(mediaType) ? cborMapper : SMILE.equals(mediaType) ? smileMapper : mapper;
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, now);
+        final LocalDateTime settledTime = now.minus(settleTime, ChronoUnit.MILLIS);
+        final boolean settledRange = !to.isAfter(settledTime);
+
+        StringBuilder version = new StringBuilder()
+                .append(pairName).append('|')
+                .append(interval.getInterval()).append('|')
+                .append(from).append('|')
+                .append(to).append('|')
+                .append(limit).append('|')
+                .append(fill).append('|')
+                .append(mediaType);
+        if (!settledRange) {
+            if (fill && to.isAfter(openTime)) {
+                version.append('|').append(openTime);
+            }
+            final LocalDateTime settledOpenTime = TimeUtils.getNearestTimeBefore(interval, settledTime);
+            try (Stream<CandleModel> unsettled = chartDataService.streamCandles(pairName, interval,
+                    from.isAfter(settledOpenTime) ? from : settledOpenTime, to, false)) {
+                unsettled.forEach(model -> version.append('|').append(model.getCandleOpenTime())
+                        .append('|').append(model.getOpenRate())
+                        .append('|').append(model.getHighRate())
+                        .append('|').append(model.getLowRate())
+                        .append('|').append(model.getCloseRate())
+                        .append('|').append(model.getVolume()));
+            }
+        }
+        final String eTag = "\"" + Hashing.murmur3_128().hashString(version, StandardCharsets.UTF_8) + "\"";
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+
+        final Stream<CandleModel> models = chartDataService.streamCandles(pairName, interval, from, to, fill);
+        final Iterator<CandleModel> iterator;
+        try {
+            iterator = models.iterator();
+            iterator.hasNext(); // reads the first page before the status is sent
+        } catch (RuntimeException ex) {
+            models.close();
+            throw ex;
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<CandleModel> closing = models;
+                 JsonGenerator generator = bodyMapper.getFactory().createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                generator.writeStartObject();
+                generator.writeStringField("pairName", pairName);
+                generator.writeObjectField("interval", interval);
+                generator.writeArrayFieldStart("candleModels");
+                if (isNull(limit)) {
+                    while (iterator.hasNext()) {
+                        generator.writeObject(iterator.next());
+                    }
+                } else {
+                    for (CandleModel model : last(iterator, limit)) {
+                        generator.writeObject(model);
+                    }
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .varyBy(HttpHeaders.ACCEPT)
+                .eTag(eTag)
+                .cacheControl(settledRange
+                        ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic()
+                        : CacheControl.noCache())
+                .body(body);
+    }
+
+    /**
+     * Returns the latest {@code count} candles of every requested pair keyed by pair name, pairs whose candles are
+     * not cached are read from elasticsearch in a single request.
+     */
+    @GetMapping(value = "/data/last", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, CBOR_VALUE, SMILE_VALUE})
+    public Map<String, List<CandleModel>> getLast(@RequestParam("pairs") List<String> pairNames,
+                                                  @RequestParam("interval") String intervalString,
+                                                  @RequestParam(value = "count", defaultValue = "1") int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Count must be positive");
+        }
+        return chartDataService.getLastCandles(pairNames, BackDealInterval.parse(intervalString), count);
+    }
+
+    /**
+     * Returns the 24 hour tickers of the requested pairs, of all traded pairs if none are requested. Tickers are
+     * kept in memory from the trade stream, so this never reaches elasticsearch, in a cluster the tickers of the
+     * pairs held by other nodes are read from redis.
+     */
+    @GetMapping(value = "/tickers", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, CBOR_VALUE, SMILE_VALUE})
+    public List<TickerDto> getTickers(@RequestParam(value = "pairs", required = false) List<String> pairNames) {
+        return isNull(pairNames) || pairNames.isEmpty()
+                ? tickerService.getTickers()
+                : tickerService.getTickers(pairNames);
+    }
+
+    private static MediaType selectMediaType(String accept) {
+        if (isNull(accept)) {
+            return MediaType.APPLICATION_JSON_UTF8;
+        }
+        List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(accepted);
+
+        for (MediaType mediaType : accepted) {
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return MediaType.APPLICATION_JSON_UTF8;
+            }
+            if (mediaType.isCompatibleWith(CBOR)) {
+                return CBOR;
+            }
+            if (mediaType.isCompatibleWith(SMILE)) {
+                return SMILE;
+            }
+        }
+        return MediaType.APPLICATION_JSON_UTF8;
+    }
+
+    private static Deque<CandleModel> last(Iterator<CandleModel> models, int limit) {
+        Deque<CandleModel> tail = new ArrayDeque<>(Math.max(0, limit));
+        if (limit <= 0) {
+            return tail;
+        }
+        while (models.hasNext()) {
+            if (tail.size() == limit) {
+                tail.pollFirst();
+            }
+            tail.addLast(models.next());
+        }
+        return tail;
+    }
+
+    @ExceptionHandler({UnsupportedIntervalTypeException.class, IllegalArgumentException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handleBadRequest(RuntimeException ex) {
+        return ex.getMessage();
+    }
+
+    @ExceptionHandler(ElasticsearchUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleUnavailable(ElasticsearchUnavailableException ex) {
+        return ex.getMessage();
+    }
 }
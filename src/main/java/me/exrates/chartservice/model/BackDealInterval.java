@@ -1,34 +1,163 @@
 package me.exrates.chartservice.model;
 
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import me.exrates.chartservice.model.enums.IntervalType;
 import me.exrates.chartservice.model.exceptions.UnsupportedIntervalTypeException;
 
-@Data
-@NoArgsConstructor
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Candle interval, immutable. The supported intervals are canonical instances created once, in the order of
+ * {@link IntervalType} and its supported values, each with its position in that order as {@code ordinal}, so
+ * per interval state can be kept in arrays, and its precomputed name and key.
+ */
+@Getter
+@EqualsAndHashCode(of = {"intervalValue", "intervalType"})
+@ToString(of = {"intervalValue", "intervalType"})
 public class BackDealInterval {
 
-    private Integer intervalValue;
-    private IntervalType intervalType;
+    private static final List<BackDealInterval> SUPPORTED;
+    private static final Map<String, BackDealInterval> BY_NAME = new HashMap<>();
+    private static final BackDealInterval[][] BY_TYPE = new BackDealInterval[IntervalType.values().length][];
+
+    static {
+        List<BackDealInterval> supported = new ArrayList<>();
+        for (IntervalType type : IntervalType.values()) {
+            int maxValue = 0;
+            for (int value : type.getSupportedValues()) {
+                maxValue = Math.max(maxValue, value);
+            }
+            BY_TYPE[type.ordinal()] = new BackDealInterval[maxValue + 1];
+
+            for (int value : type.getSupportedValues()) {
+                BackDealInterval interval = new BackDealInterval(value, type, supported.size());
+                supported.add(interval);
+                BY_NAME.put(interval.interval, interval);
+                BY_TYPE[type.ordinal()][value] = interval;
+            }
+        }
+        SUPPORTED = Collections.unmodifiableList(supported);
+    }
+
+    private final Integer intervalValue;
+    private final IntervalType intervalType;
+    private final String interval;
+    @JsonIgnore
+    private final String key;
+    @JsonIgnore
+    private final int ordinal;
 
     public BackDealInterval(Integer intervalValue, IntervalType intervalType) {
+        this(intervalValue, intervalType, ordinalOf(intervalValue, intervalType));
+    }
+
+    /**
+     * @deprecated use {@link #parse(String)}, which returns the canonical instance
+     */
+    @Deprecated
+    public BackDealInterval(String intervalString) {
+        this(parse(intervalString));
+    }
+
+    private BackDealInterval(BackDealInterval canonical) {
+        this.intervalValue = canonical.intervalValue;
+        this.intervalType = canonical.intervalType;
+        this.interval = canonical.interval;
+        this.key = canonical.key;
+        this.ordinal = canonical.ordinal;
+    }
+
+    private BackDealInterval(Integer intervalValue, IntervalType intervalType, int ordinal) {
         this.intervalValue = intervalValue;
         this.intervalType = intervalType;
+        this.interval = (intervalValue + " " + intervalType).intern();
+        this.key = interval.replace(' ', '_').toLowerCase().intern();
+        this.ordinal = ordinal;
     }
 
-    public String getInterval() {
-        return intervalValue + " " + intervalType;
+    /**
+     * @return supported intervals ordered by their ordinal
+     */
+    public static List<BackDealInterval> getSupported() {
+        return SUPPORTED;
     }
 
-    public BackDealInterval(String intervalString) {
+    /**
+     * @return canonical interval of the value and type
+     * @throws UnsupportedIntervalTypeException if the interval is not supported
+     */
+    public static BackDealInterval of(int intervalValue, IntervalType intervalType) {
+        BackDealInterval[] byValue = BY_TYPE[intervalType.ordinal()];
+        if (intervalValue < 0 || intervalValue >= byValue.length || isNull(byValue[intervalValue])) {
+            throw new UnsupportedIntervalTypeException(intervalValue + " " + intervalType);
+        }
+        return byValue[intervalValue];
+    }
+
+    /**
+     * Parses a {@code "30 MINUTE"} like string, the canonical form is a single lookup.
+     *
+     * @return canonical interval of the string
+     * @throws UnsupportedIntervalTypeException if the string is malformed or the interval is not supported
+     */
+    public static BackDealInterval parse(String intervalString) {
+        BackDealInterval interval = BY_NAME.get(intervalString);
+        if (!isNull(interval)) {
+            return interval;
+        }
+        if (isNull(intervalString)) {
+            throw new UnsupportedIntervalTypeException(null);
+        }
+
+        String[] parts = intervalString.trim().split("\\s+");
+        if (parts.length != 2) {
+            throw new UnsupportedIntervalTypeException(intervalString);
+        }
         try {
-            this.intervalValue = Integer.valueOf(intervalString.split(" ")[0]);
-            this.intervalType = IntervalType.convert(intervalString.split(" ")[1], intervalValue);
-        } catch (UnsupportedIntervalTypeException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            throw new RuntimeException("exception converting interval" + intervalString);
+            final int value = Integer.parseInt(parts[0]);
+            return of(value, IntervalType.convert(parts[1].toUpperCase(), value));
+        } catch (NumberFormatException ex) {
+            throw new UnsupportedIntervalTypeException(intervalString);
         }
     }
+
+    /**
+     * Creates deserialized intervals from their value and type, or from their name if these are missing.
+     *
+     * @return canonical interval if the interval is supported, an interval of any multiple otherwise
+     * @throws UnsupportedIntervalTypeException if neither is given or the name is not supported
+     */
+    @JsonCreator
+    public static BackDealInterval fromJson(@JsonProperty("intervalValue") Integer intervalValue,
+                                            @JsonProperty("intervalType") IntervalType intervalType,
+                                            @JsonProperty("interval") String interval) {
+        if (isNull(intervalValue) || isNull(intervalType)) {
+            return parse(interval);
+        }
+        final int ordinal = ordinalOf(intervalValue, intervalType);
+
+        return ordinal >= 0 ? SUPPORTED.get(ordinal) : new BackDealInterval(intervalValue, intervalType, ordinal);
+    }
+
+    private static int ordinalOf(Integer intervalValue, IntervalType intervalType) {
+        if (isNull(intervalValue) || isNull(intervalType)) {
+            return -1;
+        }
+        BackDealInterval[] byValue = BY_TYPE[intervalType.ordinal()];
+
+        return intervalValue >= 0 && intervalValue < byValue.length && !isNull(byValue[intervalValue])
+                ? byValue[intervalValue].ordinal
+                : -1;
+    }
 }
@@ -0,0 +1,250 @@
+package me.exrates.chartservice.model;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Columnar series of candles sorted by open time, backed by primitive arrays of a common scale.
+ * A series is filled once and then only read, so it can be shared between threads after publication.
+ */
+public final class CandleSeries {
+
+    private final int scale;
+
+    private long[] times;
+    private long[] openRates;
+    private long[] closeRates;
+    private long[] highRates;
+    private long[] lowRates;
+    private long[] volumes;
+    private int size;
+
+    public CandleSeries(int scale, int capacity) {
+        this.scale = scale;
+        this.times = new long[capacity];
+        this.openRates = new long[capacity];
+        this.closeRates = new long[capacity];
+        this.highRates = new long[capacity];
+        this.lowRates = new long[capacity];
+        this.volumes = new long[capacity];
+    }
+
+    public static CandleSeries empty() {
+        return new CandleSeries(FixedPointCandle.DEFAULT_SCALE, 0);
+    }
+
+    /**
+     * Builds a series of the given candles at the scale that keeps all their digits, lowering it until all values
+     * fit into long mantissas.
+     */
+    public static CandleSeries of(List<CandleModel> models) {
+        List<CandleModel> sorted = models.stream()
+                .sorted(Comparator.comparingLong(CandleModel::getTimeInMillis))
+                .collect(toList());
+
+        int fitScale = FixedPointCandle.DEFAULT_SCALE;
+        for (CandleModel model : sorted) {
+            fitScale = FixedPointCandle.fitScale(model, fitScale);
+        }
+        for (int scale = fitScale; ; scale--) {
+            try {
+                CandleSeries series = new CandleSeries(scale, sorted.size());
+                sorted.forEach(series::add);
+                return series;
+            } catch (ArithmeticException ex) {
+                if (scale == 0) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    public void add(CandleModel model) {
+        add(model.getTimeInMillis(),
+                FixedPointCandle.toMantissa(model.getOpenRate(), scale),
+                FixedPointCandle.toMantissa(model.getCloseRate(), scale),
+                FixedPointCandle.toMantissa(model.getHighRate(), scale),
+                FixedPointCandle.toMantissa(model.getLowRate(), scale),
+                FixedPointCandle.toMantissa(model.getVolume(), scale));
+    }
+
+    public void add(FixedPointCandle candle) {
+        final int candleScale = candle.getScale();
+
+        add(candle.getOpenTime(),
+                FixedPointCandle.rescale(candle.getOpenRate(), candleScale, scale),
+                FixedPointCandle.rescale(candle.getCloseRate(), candleScale, scale),
+                FixedPointCandle.rescale(candle.getHighRate(), candleScale, scale),
+                FixedPointCandle.rescale(candle.getLowRate(), candleScale, scale),
+                FixedPointCandle.rescale(candle.getVolume(), candleScale, scale));
+    }
+
+    public void add(long time, long openRate, long closeRate, long highRate, long lowRate, long volume) {
+        if (size == times.length) {
+            grow();
+        }
+        times[size] = time;
+        openRates[size] = openRate;
+        closeRates[size] = closeRate;
+        highRates[size] = highRate;
+        lowRates[size] = lowRate;
+        volumes[size] = volume;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public long getOpenRate(int index) {
+        return openRates[index];
+    }
+
+    public long getCloseRate(int index) {
+        return closeRates[index];
+    }
+
+    public long getHighRate(int index) {
+        return highRates[index];
+    }
+
+    public long getLowRate(int index) {
+        return lowRates[index];
+    }
+
+    public long getVolume(int index) {
+        return volumes[index];
+    }
+
+    /**
+     * @return index of the first candle opened at or after the given time, {@link #size()} if there is none
+     */
+    public int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public CandleModel get(int index) {
+        return CandleModel.builder()
+                .candleOpenTime(new Timestamp(times[index]).toLocalDateTime())
+                .openRate(FixedPointCandle.toDecimal(openRates[index], scale))
+                .closeRate(FixedPointCandle.toDecimal(closeRates[index], scale))
+                .highRate(FixedPointCandle.toDecimal(highRates[index], scale))
+                .lowRate(FixedPointCandle.toDecimal(lowRates[index], scale))
+                .volume(FixedPointCandle.toDecimal(volumes[index], scale))
+                .build();
+    }
+
+    /**
+     * @return candles opened in [fromMillis, toMillis)
+     */
+    public List<CandleModel> toCandleModels(long fromMillis, long toMillis) {
+        final int from = lowerBound(fromMillis);
+        final int to = lowerBound(toMillis);
+
+        List<CandleModel> models = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            models.add(get(i));
+        }
+        return models;
+    }
+
+    /**
+     * Merges two series into one of the higher scale, or of the highest one all values fit into, candles of the
+     * other series win on equal open time. An empty series merges into the other one as it is.
+     */
+    public CandleSeries merge(CandleSeries other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        for (int mergedScale = Math.max(scale, other.scale); ; mergedScale--) {
+            try {
+                return merge(other, mergedScale);
+            } catch (ArithmeticException ex) {
+                if (mergedScale <= Math.min(scale, other.scale)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private CandleSeries merge(CandleSeries other, int mergedScale) {
+        CandleSeries merged = new CandleSeries(mergedScale, size + other.size);
+
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && times[i] < other.times[j])) {
+                merged.copy(this, i++);
+            } else {
+                if (i < size && times[i] == other.times[j]) {
+                    i++;
+                }
+                merged.copy(other, j++);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return series of the last {@code count} candles, this series if it is not longer than that
+     */
+    public CandleSeries tail(int count) {
+        if (size <= count) {
+            return this;
+        }
+        CandleSeries tail = new CandleSeries(scale, count);
+        for (int i = size - count; i < size; i++) {
+            tail.copy(this, i);
+        }
+        return tail;
+    }
+
+    private void copy(CandleSeries source, int index) {
+        add(source.times[index],
+                FixedPointCandle.rescale(source.openRates[index], source.scale, scale),
+                FixedPointCandle.rescale(source.closeRates[index], source.scale, scale),
+                FixedPointCandle.rescale(source.highRates[index], source.scale, scale),
+                FixedPointCandle.rescale(source.lowRates[index], source.scale, scale),
+                FixedPointCandle.rescale(source.volumes[index], source.scale, scale));
+    }
+
+    private void grow() {
+        final int capacity = Math.max(16, times.length * 2);
+        times = Arrays.copyOf(times, capacity);
+        openRates = Arrays.copyOf(openRates, capacity);
+        closeRates = Arrays.copyOf(closeRates, capacity);
+        highRates = Arrays.copyOf(highRates, capacity);
+        lowRates = Arrays.copyOf(lowRates, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+    }
+}
@@ -0,0 +1,15 @@
+package me.exrates.chartservice.model;
+
+import lombok.Data;
+
+@Data
+public class CandleSubscriptionDto {
+
+    private Action action;
+    private String pairName;
+    private String interval;
+
+    public enum Action {
+        SUBSCRIBE, UNSUBSCRIBE
+    }
+}
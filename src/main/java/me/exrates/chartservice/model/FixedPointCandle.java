@@ -0,0 +1,220 @@
+package me.exrates.chartservice.model;
+
+import lombok.Getter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+
+/**
+ * Mutable candle with rates and volume stored as long mantissas of a common scale and the open time in epoch millis.
+ * Used for aggregation and caching, converted to {@link CandleModel} only at the api and serialization edges.
+ * Holders start at {@link #DEFAULT_SCALE} and raise the scale, up to {@link #MAX_SCALE}, for values with more
+ * digits, so values are rounded only when the mantissas would not fit into a long otherwise.
+ */
+@Getter
+public class FixedPointCandle {
+
+    public static final int DEFAULT_SCALE = 8;
+    public static final int MAX_SCALE = 18;
+
+    private int scale;
+    private long openTime;
+    private long openRate;
+    private long closeRate;
+    private long highRate;
+    private long lowRate;
+    private long volume;
+
+    public FixedPointCandle(int scale) {
+        this.scale = scale;
+    }
+
+    public static FixedPointCandle of(CandleModel model, int scale) {
+        FixedPointCandle candle = new FixedPointCandle(scale);
+        candle.openTime = model.getTimeInMillis();
+        candle.openRate = toMantissa(model.getOpenRate(), scale);
+        candle.closeRate = toMantissa(model.getCloseRate(), scale);
+        candle.highRate = toMantissa(model.getHighRate(), scale);
+        candle.lowRate = toMantissa(model.getLowRate(), scale);
+        candle.volume = toMantissa(model.getVolume(), scale);
+        return candle;
+    }
+
+    /**
+     * @throws ArithmeticException if the value does not fit into a long mantissa of the given scale
+     */
+    public static long toMantissa(BigDecimal value, int scale) {
+        return value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @return the given scale or the higher one, up to {@link #MAX_SCALE}, the value needs to keep all its digits
+     */
+    public static int fitScale(BigDecimal value, int scale) {
+        if (value.scale() <= scale || scale >= MAX_SCALE) {
+            return scale;
+        }
+        return Math.min(MAX_SCALE, Math.max(scale, value.stripTrailingZeros().scale()));
+    }
+
+    /**
+     * @return the given scale or the higher one, up to {@link #MAX_SCALE}, the values of the candle need
+     */
+    public static int fitScale(CandleModel model, int scale) {
+        scale = fitScale(model.getOpenRate(), scale);
+        scale = fitScale(model.getCloseRate(), scale);
+        scale = fitScale(model.getHighRate(), scale);
+        scale = fitScale(model.getLowRate(), scale);
+        return fitScale(model.getVolume(), scale);
+    }
+
+    public static BigDecimal toDecimal(long mantissa, int scale) {
+        return BigDecimal.valueOf(mantissa, scale);
+    }
+
+    public void open(long openTime, long rate, long amount) {
+        this.openTime = openTime;
+        this.openRate = rate;
+        this.closeRate = rate;
+        this.highRate = rate;
+        this.lowRate = rate;
+        this.volume = amount;
+    }
+
+    /**
+     * Opens the candle at the given time with the values of a finer candle.
+     */
+    public void open(long openTime, FixedPointCandle source) {
+        this.openTime = openTime;
+        this.openRate = source.openRate;
+        this.closeRate = source.closeRate;
+        this.highRate = source.highRate;
+        this.lowRate = source.lowRate;
+        this.volume = source.volume;
+    }
+
+    /**
+     * Folds a later finer candle of the same scale into this one.
+     *
+     * @throws ArithmeticException if the volume overflows, the candle is left unchanged in this case
+     */
+    public void merge(FixedPointCandle source) {
+        this.volume = Math.addExact(volume, source.volume);
+        if (source.highRate > highRate) {
+            this.highRate = source.highRate;
+        }
+        if (source.lowRate < lowRate) {
+            this.lowRate = source.lowRate;
+        }
+        this.closeRate = source.closeRate;
+    }
+
+    public FixedPointCandle copy() {
+        FixedPointCandle copy = new FixedPointCandle(scale);
+        copy.open(openTime, this);
+        return copy;
+    }
+
+    /**
+     * @throws ArithmeticException if the volume overflows, the candle is left unchanged in this case
+     */
+    public void apply(long rate, long amount) {
+        apply(rate, amount, false, true);
+    }
+
+    /**
+     * Folds a trade that arrived out of order, it sets the open or close rate only if it is the first or the last
+     * trade of the candle.
+     *
+     * @throws ArithmeticException if the volume overflows, the candle is left unchanged in this case
+     */
+    public void apply(long rate, long amount, boolean first, boolean last) {
+        this.volume = Math.addExact(volume, amount);
+        if (rate > highRate) {
+            this.highRate = rate;
+        }
+        if (rate < lowRate) {
+            this.lowRate = rate;
+        }
+        if (first) {
+            this.openRate = rate;
+        }
+        if (last) {
+            this.closeRate = rate;
+        }
+    }
+
+    /**
+     * Changes the scale of the candle, a lower scale rounds half up all mantissas.
+     *
+     * @throws ArithmeticException if a mantissa overflows at the higher scale, the candle is left unchanged in this case
+     */
+    public void rescale(int newScale) {
+        final long newOpenRate = rescale(openRate, scale, newScale);
+        final long newCloseRate = rescale(closeRate, scale, newScale);
+        final long newHighRate = rescale(highRate, scale, newScale);
+        final long newLowRate = rescale(lowRate, scale, newScale);
+        final long newVolume = rescale(volume, scale, newScale);
+
+        openRate = newOpenRate;
+        closeRate = newCloseRate;
+        highRate = newHighRate;
+        lowRate = newLowRate;
+        volume = newVolume;
+        scale = newScale;
+    }
+
+    public CandleModel toCandleModel() {
+        return CandleModel.builder()
+                .candleOpenTime(new Timestamp(openTime).toLocalDateTime())
+                .openRate(toDecimal(openRate, scale))
+                .closeRate(toDecimal(closeRate, scale))
+                .highRate(toDecimal(highRate, scale))
+                .lowRate(toDecimal(lowRate, scale))
+                .volume(toDecimal(volume, scale))
+                .build();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(scale);
+        out.writeLong(openTime);
+        out.writeLong(openRate);
+        out.writeLong(closeRate);
+        out.writeLong(highRate);
+        out.writeLong(lowRate);
+        out.writeLong(volume);
+    }
+
+    public static FixedPointCandle readFrom(DataInput in) throws IOException {
+        FixedPointCandle candle = new FixedPointCandle(in.readByte());
+        candle.openTime = in.readLong();
+        candle.openRate = in.readLong();
+        candle.closeRate = in.readLong();
+        candle.highRate = in.readLong();
+        candle.lowRate = in.readLong();
+        candle.volume = in.readLong();
+        return candle;
+    }
+
+    /**
+     * @throws ArithmeticException if the mantissa overflows at the higher scale
+     */
+    static long rescale(long mantissa, int scale, int newScale) {
+        if (newScale == scale) {
+            return mantissa;
+        }
+        long divisor = 1;
+        for (int i = Math.min(scale, newScale); i < Math.max(scale, newScale); i++) {
+            divisor *= 10;
+        }
+        if (newScale > scale) {
+            return Math.multiplyExact(mantissa, divisor);
+        }
+        long half = divisor / 2;
+        return mantissa >= 0 ? (mantissa + half) / divisor : -((-mantissa + half) / divisor);
+    }
+}
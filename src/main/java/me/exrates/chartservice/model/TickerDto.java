@@ -0,0 +1,39 @@
+package me.exrates.chartservice.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import me.exrates.chartservice.model.serializers.LocalDateTimeDeserializer;
+import me.exrates.chartservice.model.serializers.LocalDateTimeSerializer;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@Builder(builderClassName = "Builder", toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class TickerDto {
+
+    @JsonProperty("pair_name")
+    private String pairName;
+    @JsonProperty("last_rate")
+    private BigDecimal lastRate;
+    @JsonProperty("open_rate")
+    private BigDecimal openRate;
+    @JsonProperty("high_rate")
+    private BigDecimal highRate;
+    @JsonProperty("low_rate")
+    private BigDecimal lowRate;
+    private BigDecimal volume;
+    @JsonProperty("change_percent")
+    private BigDecimal changePercent;
+    @JsonProperty("last_trade_time")
+    @JsonDeserialize(using = LocalDateTimeDeserializer.class)
+    @JsonSerialize(using = LocalDateTimeSerializer.class)
+    private LocalDateTime lastTradeTime;
+}
@@ -5,8 +5,10 @@ import me.exrates.chartservice.model.exceptions.UnsupportedIntervalTypeException
 
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalUnit;
-import java.util.Arrays;
-import java.util.stream.IntStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
 
 @Getter
 public enum IntervalType {
@@ -17,6 +19,14 @@ public enum IntervalType {
     WEEK(ChronoUnit.WEEKS, 1, 3),
     MONTH(ChronoUnit.MONTHS, 1);
 
+    private static final Map<String, IntervalType> BY_NAME = new HashMap<>();
+
+    static {
+        for (IntervalType type : values()) {
+            BY_NAME.put(type.name(), type);
+        }
+    }
+
     private TemporalUnit correspondingTimeUnit;
 
     private int[] supportedValues;
@@ -27,9 +37,19 @@ public enum IntervalType {
     }
 
     public static IntervalType convert(String str, int intervalValue) {
-        return Arrays.stream(IntervalType.values())
-                .filter(val -> (val.name().equals(str) && IntStream.of(val.supportedValues).anyMatch(x -> x == intervalValue)))
-                .findFirst()
-                .orElseThrow(() -> new UnsupportedIntervalTypeException(str));
+        IntervalType type = isNull(str) ? null : BY_NAME.get(str);
+        if (isNull(type) || !type.isSupported(intervalValue)) {
+            throw new UnsupportedIntervalTypeException(str);
+        }
+        return type;
+    }
+
+    public boolean isSupported(int intervalValue) {
+        for (int value : supportedValues) {
+            if (value == intervalValue) {
+                return true;
+            }
+        }
+        return false;
     }
 }
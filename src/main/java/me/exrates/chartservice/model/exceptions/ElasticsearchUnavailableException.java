@@ -0,0 +1,12 @@
+package me.exrates.chartservice.model.exceptions;
+
+public class ElasticsearchUnavailableException extends RuntimeException {
+
+    public ElasticsearchUnavailableException(String message) {
+        super(message);
+    }
+
+    public ElasticsearchUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
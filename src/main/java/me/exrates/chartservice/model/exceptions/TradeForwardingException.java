@@ -0,0 +1,12 @@
+package me.exrates.chartservice.model.exceptions;
+
+public class TradeForwardingException extends RuntimeException {
+
+    public TradeForwardingException(String message) {
+        super(message);
+    }
+
+    public TradeForwardingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
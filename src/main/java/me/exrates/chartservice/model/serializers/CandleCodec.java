@@ -0,0 +1,26 @@
+package me.exrates.chartservice.model.serializers;
+
+import me.exrates.chartservice.model.CandleModel;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary form of candles for internal storage and transfer: redis values, snapshot files and the like.
+ */
+public interface CandleCodec {
+
+    byte[] encode(List<CandleModel> models);
+
+    List<CandleModel> decode(byte[] bytes);
+
+    default byte[] encode(CandleModel model) {
+        return encode(Collections.singletonList(model));
+    }
+
+    default CandleModel decodeOne(byte[] bytes) {
+        List<CandleModel> models = decode(bytes);
+
+        return models.isEmpty() ? null : models.get(0);
+    }
+}
@@ -0,0 +1,62 @@
+package me.exrates.chartservice.model.serializers;
+
+import me.exrates.chartservice.model.CandleModel;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+
+/**
+ * Compact binary form of a candle: open time in millis followed by the rates and volume,
+ * each written as scale, length and unscaled value bytes.
+ */
+public final class CandleModelBinarySerializer {
+
+    private CandleModelBinarySerializer() {
+    }
+
+    public static byte[] serialize(CandleModel model) {
+        byte[] open = model.getOpenRate().unscaledValue().toByteArray();
+        byte[] close = model.getCloseRate().unscaledValue().toByteArray();
+        byte[] high = model.getHighRate().unscaledValue().toByteArray();
+        byte[] low = model.getLowRate().unscaledValue().toByteArray();
+        byte[] volume = model.getVolume().unscaledValue().toByteArray();
+
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 2 * 5 + open.length + close.length + high.length + low.length + volume.length);
+        buffer.putLong(model.getTimeInMillis());
+        putDecimal(buffer, model.getOpenRate().scale(), open);
+        putDecimal(buffer, model.getCloseRate().scale(), close);
+        putDecimal(buffer, model.getHighRate().scale(), high);
+        putDecimal(buffer, model.getLowRate().scale(), low);
+        putDecimal(buffer, model.getVolume().scale(), volume);
+        return buffer.array();
+    }
+
+    public static CandleModel deserialize(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long timeInMillis = buffer.getLong();
+
+        return CandleModel.builder()
+                .candleOpenTime(new Timestamp(timeInMillis).toLocalDateTime())
+                .openRate(getDecimal(buffer))
+                .closeRate(getDecimal(buffer))
+                .highRate(getDecimal(buffer))
+                .lowRate(getDecimal(buffer))
+                .volume(getDecimal(buffer))
+                .build();
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int scale, byte[] unscaled) {
+        buffer.put((byte) scale);
+        buffer.put((byte) unscaled.length);
+        buffer.put(unscaled);
+    }
+
+    private static BigDecimal getDecimal(ByteBuffer buffer) {
+        int scale = buffer.get();
+        byte[] unscaled = new byte[buffer.get() & 0xFF];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
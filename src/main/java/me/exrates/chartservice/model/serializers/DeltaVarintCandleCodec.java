@@ -0,0 +1,218 @@
+package me.exrates.chartservice.model.serializers;
+
+import me.exrates.chartservice.model.CandleModel;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Candles as a version byte and a varint count followed by, for every candle, the zigzag varint delta of its open
+ * time from the previous candle, one scale byte and the values as zigzag varint mantissas of that scale: the open
+ * rate, the close, high and low rates as differences from the open rate and the volume.
+ * Candles whose values do not fit longs at a common scale are written with the {@link #EXACT} marker instead of the
+ * scale and every value as scale, length and unscaled bytes.
+ * Bytes starting with zero are read as written by {@link CandleModelBinarySerializer}.
+ */
+public final class DeltaVarintCandleCodec implements CandleCodec {
+
+    private static final byte VERSION = 1;
+    private static final int EXACT = 0xFF;
+    private static final int MAX_SCALE = 18;
+
+    @Override
+    public byte[] encode(List<CandleModel> models) {
+        Output output = new Output(2 + models.size() * 16);
+        output.write(VERSION);
+        output.writeVarint(models.size());
+
+        long previousTime = 0L;
+        for (CandleModel model : models) {
+            final long time = model.getTimeInMillis();
+            output.writeVarint(zigzag(time - previousTime));
+            previousTime = time;
+
+            if (!writeMantissas(output, model)) {
+                output.write(EXACT);
+                writeExact(output, model.getOpenRate());
+                writeExact(output, model.getCloseRate());
+                writeExact(output, model.getHighRate());
+                writeExact(output, model.getLowRate());
+                writeExact(output, model.getVolume());
+            }
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public List<CandleModel> decode(byte[] bytes) {
+        if (bytes.length == 0) {
+            return Collections.emptyList();
+        }
+        if (bytes[0] == 0) {
+            return Collections.singletonList(CandleModelBinarySerializer.deserialize(bytes));
+        }
+        if (bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Unknown candle format version " + bytes[0]);
+        }
+
+        Input input = new Input(bytes, 1);
+        final int count = (int) input.readVarint();
+        List<CandleModel> models = new ArrayList<>(count);
+
+        long time = 0L;
+        for (int i = 0; i < count; i++) {
+            time += unzigzag(input.readVarint());
+            CandleModel.Builder builder = CandleModel.builder()
+                    .candleOpenTime(new Timestamp(time).toLocalDateTime());
+
+            final int scale = input.read();
+            if (scale == EXACT) {
+                builder.openRate(readExact(input))
+                        .closeRate(readExact(input))
+                        .highRate(readExact(input))
+                        .lowRate(readExact(input))
+                        .volume(readExact(input));
+            } else {
+                final long open = unzigzag(input.readVarint());
+                builder.openRate(BigDecimal.valueOf(open, scale))
+                        .closeRate(BigDecimal.valueOf(open + unzigzag(input.readVarint()), scale))
+                        .highRate(BigDecimal.valueOf(open + unzigzag(input.readVarint()), scale))
+                        .lowRate(BigDecimal.valueOf(open + unzigzag(input.readVarint()), scale))
+                        .volume(BigDecimal.valueOf(unzigzag(input.readVarint()), scale));
+            }
+            models.add(builder.build());
+        }
+        return models;
+    }
+
+    /**
+     * @return false, leaving the output untouched, if the values do not fit longs at their common scale
+     */
+    private static boolean writeMantissas(Output output, CandleModel model) {
+        final int scale = Math.max(0, Math.max(model.getOpenRate().scale(), Math.max(model.getCloseRate().scale(),
+                Math.max(model.getHighRate().scale(), Math.max(model.getLowRate().scale(), model.getVolume().scale())))));
+        if (scale > MAX_SCALE) {
+            return false;
+        }
+        try {
+            final long open = mantissa(model.getOpenRate(), scale);
+            final long close = Math.subtractExact(mantissa(model.getCloseRate(), scale), open);
+            final long high = Math.subtractExact(mantissa(model.getHighRate(), scale), open);
+            final long low = Math.subtractExact(mantissa(model.getLowRate(), scale), open);
+            final long volume = mantissa(model.getVolume(), scale);
+
+            output.write(scale);
+            output.writeVarint(zigzag(open));
+            output.writeVarint(zigzag(close));
+            output.writeVarint(zigzag(high));
+            output.writeVarint(zigzag(low));
+            output.writeVarint(zigzag(volume));
+            return true;
+        } catch (ArithmeticException ex) {
+            return false;
+        }
+    }
+
+    private static long mantissa(BigDecimal value, int scale) {
+        return value.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    private static void writeExact(Output output, BigDecimal value) {
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        output.writeVarint(zigzag(value.scale()));
+        output.writeVarint(unscaled.length);
+        output.write(unscaled);
+    }
+
+    private static BigDecimal readExact(Input input) {
+        final int scale = (int) unzigzag(input.readVarint());
+        byte[] unscaled = input.read((int) input.readVarint());
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output {
+
+        private byte[] bytes;
+        private int length;
+
+        private Output(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void write(int value) {
+            ensure(1);
+            bytes[length++] = (byte) value;
+        }
+
+        private void write(byte[] values) {
+            ensure(values.length);
+            System.arraycopy(values, 0, bytes, length, values.length);
+            length += values.length;
+        }
+
+        private void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void ensure(int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        private int read() {
+            return bytes[position++] & 0xFF;
+        }
+
+        private byte[] read(int count) {
+            byte[] result = Arrays.copyOfRange(bytes, position, position + count);
+            position += count;
+            return result;
+        }
+
+        private long readVarint() {
+            long value = 0L;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
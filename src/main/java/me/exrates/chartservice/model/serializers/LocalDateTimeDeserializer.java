@@ -25,7 +25,88 @@ public class LocalDateTimeDeserializer extends JsonDeserializer<LocalDateTime> {
         if (StringUtils.isEmpty(raw)) {
             return null;
         }
-        String str = raw.replaceAll("\"", "");
+        return parse(raw);
+    }
+
+    /**
+     * Parses {@code yyyy-MM-dd'T'HH:mm[:ss[.SSSSSSSSS]][Z]}, with a space instead of {@code T} as well, in one pass
+     * over the characters. Anything else goes to the formatter based parsing.
+     */
+    public static LocalDateTime parse(String raw) {
+        int from = 0;
+        int to = raw.length();
+        while (from < to && raw.charAt(from) == '"') {
+            from++;
+        }
+        while (to > from && raw.charAt(to - 1) == '"') {
+            to--;
+        }
+
+        LocalDateTime parsed = parseFast(raw, from, to);
+
+        return parsed != null ? parsed : parseSlow(raw.substring(from, to).replace("\"", ""));
+    }
+
+    private static LocalDateTime parseFast(String str, int from, int to) {
+        if (to > from && str.charAt(to - 1) == 'Z') {
+            to--;
+        }
+        if (to - from < 16
+                || str.charAt(from + 4) != '-' || str.charAt(from + 7) != '-'
+                || (str.charAt(from + 10) != 'T' && str.charAt(from + 10) != ' ')
+                || str.charAt(from + 13) != ':') {
+            return null;
+        }
+        final int year = digits(str, from, 4);
+        final int month = digits(str, from + 5, 2);
+        final int day = digits(str, from + 8, 2);
+        final int hour = digits(str, from + 11, 2);
+        final int minute = digits(str, from + 14, 2);
+        if ((year | month | day | hour | minute) < 0) {
+            return null;
+        }
+
+        int second = 0;
+        int nano = 0;
+        int pos = from + 16;
+        if (pos < to) {
+            if (to - pos < 3 || str.charAt(pos) != ':' || (second = digits(str, pos + 1, 2)) < 0) {
+                return null;
+            }
+            pos += 3;
+            if (pos < to) {
+                final int fractionDigits = to - pos - 1;
+                if (str.charAt(pos) != '.' || fractionDigits < 1 || fractionDigits > 9 || (nano = digits(str, pos + 1, fractionDigits)) < 0) {
+                    return null;
+                }
+                for (int i = fractionDigits; i < 9; i++) {
+                    nano *= 10;
+                }
+            }
+        }
+        if (month < 1 || month > 12 || day < 1 || day > 28 && day > LocalDate.of(year, month, 1).lengthOfMonth()
+                || hour > 23 || minute > 59 || second > 59) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+    }
+
+    /**
+     * @return value of the decimal digits at the position or -1 if any of the characters is not a digit
+     */
+    private static int digits(String str, int pos, int count) {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            final int digit = str.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static LocalDateTime parseSlow(String str) {
         if (str.endsWith("Z")) {
             return ZonedDateTime.parse(str).toLocalDateTime();
         } else {
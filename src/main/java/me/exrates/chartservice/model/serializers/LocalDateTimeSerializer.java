@@ -10,11 +10,60 @@ import java.time.format.DateTimeFormatter;
 
 
 public class LocalDateTimeSerializer extends JsonSerializer<LocalDateTime> {
+
+    private static final int MAX_LENGTH = 29;
+
     @Override
     public void serialize(LocalDateTime localDateTime, JsonGenerator jsonGenerator, SerializerProvider serializerProvider) throws IOException {
         if (localDateTime == null) {
             return;
         }
-        jsonGenerator.writeString(localDateTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME).replaceAll("T", " "));
+        final int year = localDateTime.getYear();
+        if (year < 0 || year > 9999) {
+            jsonGenerator.writeString(localDateTime.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME).replace('T', ' '));
+            return;
+        }
+        char[] buffer = new char[MAX_LENGTH];
+        jsonGenerator.writeString(buffer, 0, format(localDateTime, buffer));
+    }
+
+    /**
+     * Writes the time as {@link DateTimeFormatter#ISO_LOCAL_DATE_TIME} does for four digit years, with a space
+     * instead of {@code T}: seconds are always written, the fraction only if not zero and without trailing zeros.
+     *
+     * @return number of written characters
+     */
+    static int format(LocalDateTime localDateTime, char[] buffer) {
+        write(buffer, 0, localDateTime.getYear(), 4);
+        buffer[4] = '-';
+        write(buffer, 5, localDateTime.getMonthValue(), 2);
+        buffer[7] = '-';
+        write(buffer, 8, localDateTime.getDayOfMonth(), 2);
+        buffer[10] = ' ';
+        write(buffer, 11, localDateTime.getHour(), 2);
+        buffer[13] = ':';
+        write(buffer, 14, localDateTime.getMinute(), 2);
+        buffer[16] = ':';
+        write(buffer, 17, localDateTime.getSecond(), 2);
+
+        int nano = localDateTime.getNano();
+        if (nano == 0) {
+            return 19;
+        }
+        int digits = 9;
+        while (nano % 10 == 0) {
+            nano /= 10;
+            digits--;
+        }
+        buffer[19] = '.';
+        write(buffer, 20, nano, digits);
+        return 20 + digits;
+    }
+
+    private static void write(char[] buffer, int pos, int value, int digits) {
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
     }
 }
@@ -0,0 +1,120 @@
+package me.exrates.chartservice.service.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.TradeDataService;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Batching alternative to {@link RabbitListeners}, enabled by {@code spring.rabbitmq.batch.enabled}.
+ * Trades are collected from a single ordered consumer until the batch size is reached or the receive timeout
+ * passes, then handed to the workers owning their pairs, so trades of one pair keep their order. The batch is
+ * acknowledged as a whole once every trade of it has been applied, and requeued as a whole if any trade failed,
+ * the trades applied already are skipped by their order id when they come back.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(value = "spring.rabbitmq.batch.enabled", havingValue = "true")
+public class BatchRabbitListener implements ChannelAwareMessageListener {
+
+    private final TradeDataService tradeDataService;
+    private final ObjectMapper mapper;
+    private final TradeConsumerMetrics metrics;
+    private final int batchSize;
+
+    private final Object lock = new Object();
+    private final List<TradeDataDto> batch;
+    private Channel channel;
+    private long lastDeliveryTag = -1;
+
+    @Autowired
+    public BatchRabbitListener(TradeDataService tradeDataService,
+                               @Qualifier("jsonMapper") ObjectMapper mapper,
+                               TradeConsumerMetrics metrics,
+                               @Value("${spring.rabbitmq.batch.size:500}") int batchSize) {
+        this.tradeDataService = tradeDataService;
+        this.mapper = mapper;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) throws Exception {
+        TradeDataDto dto = null;
+        try {
+            dto = mapper.readValue(message.getBody(), TradeDataDto.class);
+            metrics.consumed(dto);
+        } catch (IOException ex) {
+            log.error("Problem with reading trade from message", ex);
+            metrics.rejected();
+        }
+
+        synchronized (lock) {
+            if (!isNull(dto)) {
+                batch.add(dto);
+            }
+            this.channel = channel;
+            this.lastDeliveryTag = message.getMessageProperties().getDeliveryTag();
+
+            if (batch.size() >= batchSize) {
+                flushBatch();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${spring.rabbitmq.batch.receive-timeout:100}")
+    public void flush() throws IOException {
+        synchronized (lock) {
+            if (lastDeliveryTag >= 0) {
+                flushBatch();
+            }
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        final long start = System.nanoTime();
+        CompletableFuture<?>[] applied = new CompletableFuture[batch.size()];
+        for (int i = 0; i < applied.length; i++) {
+            final TradeDataDto dto = batch.get(i);
+            applied[i] = tradeDataService.handleReceivedTrade(dto)
+                    .whenComplete((result, ex) -> {
+                        if (!isNull(ex)) {
+                            log.error("Problem with handling trade {}", dto, ex);
+                        }
+                    });
+        }
+
+        try {
+            CompletableFuture.allOf(applied).get();
+            metrics.batchApplied(start);
+            channel.basicAck(lastDeliveryTag, true);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            channel.basicNack(lastDeliveryTag, true, true);
+        } catch (ExecutionException ex) {
+            log.error("Problem with handling batch", ex);
+            channel.basicNack(lastDeliveryTag, true, true);
+        } finally {
+            batch.clear();
+            lastDeliveryTag = -1;
+        }
+    }
+}
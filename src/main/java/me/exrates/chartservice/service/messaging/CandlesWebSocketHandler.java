@@ -0,0 +1,215 @@
+package me.exrates.chartservice.service.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.CandleSubscriptionDto;
+import me.exrates.chartservice.model.CandlesDataDto;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.TradeDataService;
+import me.exrates.chartservice.services.TradeListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Pushes open candle updates to websocket subscribers of a pair and interval.
+ * Trades only mark their pair as updated, on every tick each subscribed topic of an updated pair is serialized once
+ * and the same message is sent to all of its subscribers, so a subscriber gets at most one message per tick.
+ * The open candles are read without blocking the scheduler and sent from a push thread of the handler, a topic
+ * whose previous update is still in flight is pushed on the next tick. Topics are removed with their last subscriber.
+ */
+@Log4j2
+@Component
+public class CandlesWebSocketHandler extends TextWebSocketHandler implements TradeListener {
+
+    private final TradeDataService tradeDataService;
+    private final ObjectMapper mapper;
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Topic>> topicsByPair = new ConcurrentHashMap<>();
+    private final Set<String> updatedPairs = ConcurrentHashMap.newKeySet();
+    private final ExecutorService pushExecutor = Executors.newSingleThreadExecutor();
+
+    @Autowired
+    public CandlesWebSocketHandler(TradeDataService tradeDataService,
+                                   @Qualifier("jsonMapper") ObjectMapper mapper,
+                                   @Value("${candles.push.send-time-limit:5000}") int sendTimeLimit,
+                                   @Value("${candles.push.buffer-size-limit:524288}") int bufferSizeLimit) {
+        this.tradeDataService = tradeDataService;
+        this.mapper = mapper;
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+    }
+
+    @PostConstruct
+    public void init() {
+        tradeDataService.addTradeListener(this);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pushExecutor.shutdown();
+    }
+
+    @Override
+    public void onTrade(TradeDataDto dto) {
+        if (topicsByPair.containsKey(dto.getPairName())) {
+            updatedPairs.add(dto.getPairName());
+        }
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        sessions.put(session.getId(), new ConcurrentWebSocketSessionDecorator(session, sendTimeLimit, bufferSizeLimit));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        final WebSocketSession decorated = sessions.get(session.getId());
+        if (isNull(decorated)) {
+            return;
+        }
+
+        CandleSubscriptionDto subscription = mapper.readValue(message.getPayload(), CandleSubscriptionDto.class);
+        if (isNull(subscription.getAction()) || isNull(subscription.getPairName()) || isNull(subscription.getInterval())) {
+            log.warn("Skipped incomplete subscription: {}", subscription);
+            return;
+        }
+        final BackDealInterval interval = BackDealInterval.parse(subscription.getInterval());
+
+        switch (subscription.getAction()) {
+            case SUBSCRIBE:
+                topicsByPair.compute(subscription.getPairName(), (pairName, topics) -> {
+                    Map<String, Topic> updated = isNull(topics) ? new ConcurrentHashMap<>() : topics;
+                    updated.computeIfAbsent(interval.getInterval(), key -> new Topic(pairName, interval)).sessions.add(decorated);
+                    return updated;
+                });
+                updatedPairs.add(subscription.getPairName());
+                break;
+            case UNSUBSCRIBE:
+                unsubscribe(subscription.getPairName(), Collections.singleton(interval.getInterval()), decorated);
+                break;
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        final WebSocketSession decorated = sessions.remove(session.getId());
+        if (isNull(decorated)) {
+            return;
+        }
+        topicsByPair.forEach((pairName, topics) -> unsubscribe(pairName, topics.keySet(), decorated));
+    }
+
+    @Scheduled(fixedDelayString = "${candles.push.tick:250}")
+    public void push() {
+        for (String pairName : updatedPairs) {
+            updatedPairs.remove(pairName);
+
+            Map<String, Topic> topics = topicsByPair.get(pairName);
+            if (isNull(topics)) {
+                continue;
+            }
+            topics.values().forEach(this::push);
+        }
+    }
+
+    /**
+     * Removes the session from the topics of the pair, dropping the topics and the pair left without subscribers.
+     */
+    private void unsubscribe(String pairName, Collection<String> intervals, WebSocketSession session) {
+        topicsByPair.computeIfPresent(pairName, (key, topics) -> {
+            for (String interval : intervals) {
+                topics.computeIfPresent(interval, (intervalKey, topic) -> {
+                    topic.sessions.remove(session);
+                    return topic.sessions.isEmpty() ? null : topic;
+                });
+            }
+            return topics.isEmpty() ? null : topics;
+        });
+    }
+
+    private void push(Topic topic) {
+        if (topic.sessions.isEmpty()) {
+            return;
+        }
+        if (!topic.inFlight.compareAndSet(false, true)) {
+            updatedPairs.add(topic.pairName);
+            return;
+        }
+        tradeDataService.getOpenCandleAsync(topic.pairName, topic.interval)
+                .thenAcceptAsync(openCandle -> send(topic, openCandle), pushExecutor)
+                .whenComplete((result, ex) -> {
+                    topic.inFlight.set(false);
+                    if (!isNull(ex)) {
+                        log.error("Problem with pushing open candle of pair {}", topic.pairName, ex);
+                    }
+                });
+    }
+
+    private void send(Topic topic, CandleModel openCandle) {
+        if (isNull(openCandle)) {
+            return;
+        }
+
+        CandlesDataDto data = new CandlesDataDto();
+        data.setPairName(topic.pairName);
+        data.setInterval(topic.interval);
+        data.setCandleModels(Collections.singletonList(openCandle));
+
+        final TextMessage message;
+        try {
+            message = new TextMessage(mapper.writeValueAsBytes(data));
+        } catch (IOException ex) {
+            log.error("Problem with writing model object to string", ex);
+            return;
+        }
+
+        for (WebSocketSession session : topic.sessions) {
+            try {
+                session.sendMessage(message);
+            } catch (Exception ex) {
+                log.debug("Problem with sending candle update to session {}", session.getId(), ex);
+                topic.sessions.remove(session);
+            }
+        }
+    }
+
+    private static final class Topic {
+
+        private final String pairName;
+        private final BackDealInterval interval;
+        private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean inFlight = new AtomicBoolean();
+
+        private Topic(String pairName, BackDealInterval interval) {
+            this.pairName = pairName;
+            this.interval = interval;
+        }
+    }
+}
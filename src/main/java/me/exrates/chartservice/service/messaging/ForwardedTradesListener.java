@@ -0,0 +1,33 @@
+package me.exrates.chartservice.service.messaging;
+
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.TradeDataService;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Receives the trades forwarded by the other nodes of the cluster to this node, which holds their pairs. A trade
+ * is acknowledged once applied or forwarded on, a trade that failed is requeued.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(value = "cluster.enabled", havingValue = "true")
+public class ForwardedTradesListener {
+
+    private final TradeDataService tradeDataService;
+
+    @Autowired
+    public ForwardedTradesListener(TradeDataService tradeDataService) {
+        this.tradeDataService = tradeDataService;
+    }
+
+    @RabbitListener(queues = "#{nodeTradesQueue.name}")
+    public void receiveTrade(TradeDataDto message) {
+        log.debug("Received forwarded trade: {}", message);
+
+        tradeDataService.handleReceivedTrade(message).join();
+    }
+}
@@ -2,18 +2,36 @@ package me.exrates.chartservice.service.messaging;
 
 import lombok.extern.log4j.Log4j2;
 import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.TradeDataService;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+/**
+ * Receives trades one by one. The listener returns, and the container acknowledges the trade, only once the trade
+ * has been journaled and applied by the worker of its pair; a trade that fails is rejected and requeued.
+ */
 @Log4j2
 @Component
+@ConditionalOnProperty(value = "spring.rabbitmq.batch.enabled", havingValue = "false", matchIfMissing = true)
 public class RabbitListeners {
 
+    private final TradeDataService tradeDataService;
+    private final TradeConsumerMetrics metrics;
+
+    @Autowired
+    public RabbitListeners(TradeDataService tradeDataService,
+                           TradeConsumerMetrics metrics) {
+        this.tradeDataService = tradeDataService;
+        this.metrics = metrics;
+    }
 
     @RabbitListener(queues = "${spring.rabbitmq.tradestopic}")
     public void recieveTrade(TradeDataDto message) {
-        System.out.println("income message !!!");
-        System.out.println(message);
-        /*handle messages here*/
+        log.debug("Received trade: {}", message);
+        metrics.consumed(message);
+
+        tradeDataService.handleReceivedTrade(message).join();
     }
 }
@@ -0,0 +1,149 @@
+package me.exrates.chartservice.service.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.TickerDto;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.PairOwnershipService;
+import me.exrates.chartservice.services.TickerService;
+import me.exrates.chartservice.services.TradeDataService;
+import me.exrates.chartservice.services.TradeListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Pushes 24 hour tickers to websocket sessions, a session gets the tickers of all pairs when it connects and then
+ * on every tick one message with the tickers of the pairs traded since the previous tick, serialized once for all
+ * sessions. Trades only mark their pair as updated. In a cluster, where the trades of most pairs reach other
+ * nodes, the pairs whose last trade time changed since the previous tick are pushed instead.
+ */
+@Log4j2
+@Component
+public class TickersWebSocketHandler extends TextWebSocketHandler implements TradeListener {
+
+    private final TradeDataService tradeDataService;
+    private final TickerService tickerService;
+    private final PairOwnershipService pairOwnershipService;
+    private final ObjectMapper mapper;
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final Set<String> updatedPairs = ConcurrentHashMap.newKeySet();
+    private final Map<String, LocalDateTime> pushedTradeTimes = new HashMap<>();
+
+    @Autowired
+    public TickersWebSocketHandler(TradeDataService tradeDataService,
+                                   TickerService tickerService,
+                                   PairOwnershipService pairOwnershipService,
+                                   @Qualifier("jsonMapper") ObjectMapper mapper,
+                                   @Value("${candles.push.send-time-limit:5000}") int sendTimeLimit,
+                                   @Value("${candles.push.buffer-size-limit:524288}") int bufferSizeLimit) {
+        this.tradeDataService = tradeDataService;
+        this.tickerService = tickerService;
+        this.pairOwnershipService = pairOwnershipService;
+        this.mapper = mapper;
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+    }
+
+    @PostConstruct
+    public void init() {
+        tradeDataService.addTradeListener(this);
+    }
+
+    @Override
+    public void onTrade(TradeDataDto dto) {
+        if (!sessions.isEmpty() && !pairOwnershipService.isEnabled()) {
+            updatedPairs.add(dto.getPairName());
+        }
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        final WebSocketSession decorated = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimit, bufferSizeLimit);
+        sessions.put(session.getId(), decorated);
+
+        TextMessage message = toMessage(tickerService.getTickers());
+        if (!isNull(message)) {
+            send(decorated, message);
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        sessions.remove(session.getId());
+    }
+
+    @Scheduled(fixedDelayString = "${tickers.push.tick:1000}")
+    public void push() {
+        List<TickerDto> tickers;
+        if (pairOwnershipService.isEnabled()) {
+            if (sessions.isEmpty()) {
+                pushedTradeTimes.clear();
+                return;
+            }
+            tickers = tickerService.getTickers().stream()
+                    .filter(dto -> !Objects.equals(pushedTradeTimes.put(dto.getPairName(), dto.getLastTradeTime()), dto.getLastTradeTime()))
+                    .collect(toList());
+        } else {
+            if (updatedPairs.isEmpty()) {
+                return;
+            }
+            List<String> pairNames = new ArrayList<>(updatedPairs);
+            updatedPairs.removeAll(pairNames);
+            if (sessions.isEmpty()) {
+                return;
+            }
+            tickers = tickerService.getTickers(pairNames);
+        }
+        if (tickers.isEmpty()) {
+            return;
+        }
+        TextMessage message = toMessage(tickers);
+        if (isNull(message)) {
+            return;
+        }
+        sessions.values().forEach(session -> send(session, message));
+    }
+
+    private TextMessage toMessage(List<TickerDto> tickers) {
+        try {
+            return new TextMessage(mapper.writeValueAsBytes(tickers));
+        } catch (IOException ex) {
+            log.error("Problem with writing model object to string", ex);
+            return null;
+        }
+    }
+
+    private void send(WebSocketSession session, TextMessage message) {
+        try {
+            session.sendMessage(message);
+        } catch (Exception ex) {
+            log.debug("Problem with sending tickers to session {}", session.getId(), ex);
+            sessions.remove(session.getId());
+        }
+    }
+}
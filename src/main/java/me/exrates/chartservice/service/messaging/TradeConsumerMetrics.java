@@ -0,0 +1,52 @@
+package me.exrates.chartservice.service.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.exrates.chartservice.model.TradeDataDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Meters of the trades consumer: consume rate, lag of a trade between its acceptance and its arrival,
+ * and time a batch takes to be applied before it is acknowledged.
+ */
+@Component
+public class TradeConsumerMetrics {
+
+    private final Counter consumedCounter;
+    private final Counter rejectedCounter;
+    private final Timer lagTimer;
+    private final Timer batchTimer;
+
+    @Autowired
+    public TradeConsumerMetrics(MeterRegistry meterRegistry) {
+        this.consumedCounter = meterRegistry.counter("rabbit.trades.consumed");
+        this.rejectedCounter = meterRegistry.counter("rabbit.trades.rejected");
+        this.lagTimer = meterRegistry.timer("rabbit.trades.lag");
+        this.batchTimer = meterRegistry.timer("rabbit.batch.apply");
+    }
+
+    void consumed(TradeDataDto dto) {
+        consumedCounter.increment();
+        if (!isNull(dto.getTradeDate())) {
+            final long lag = System.currentTimeMillis() - Timestamp.valueOf(dto.getTradeDate()).getTime();
+            if (lag >= 0) {
+                lagTimer.record(lag, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    void rejected() {
+        rejectedCounter.increment();
+    }
+
+    void batchApplied(long startNanos) {
+        batchTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,23 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link ElasticsearchProcessingService}, futures are completed from the callbacks of
+ * the client. Failed or timed out writes yield {@code false}, failed or timed out reads complete exceptionally with
+ * {@link me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException}, as an empty list would be
+ * taken for a range without candles.
+ */
+public interface AsyncElasticsearchProcessingService {
+
+    CompletableFuture<List<CandleModel>> getByQueryAsync(LocalDateTime fromDate, LocalDateTime toDate, String pairName, BackDealInterval interval);
+
+    CompletableFuture<Boolean> indexAsync(CandleModel model, String pairName, BackDealInterval interval);
+
+    CompletableFuture<Boolean> bulkAsync(List<CandleModel> models, String pairName, BackDealInterval interval);
+}
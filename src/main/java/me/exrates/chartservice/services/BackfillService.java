@@ -0,0 +1,13 @@
+package me.exrates.chartservice.services;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+public interface BackfillService {
+
+    boolean start(boolean reset);
+
+    boolean isRunning();
+
+    Map<String, LocalDateTime> getCheckpoints();
+}
@@ -0,0 +1,27 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface CandleCacheService {
+
+    /**
+     * @throws me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException if the range is not
+     *                                                                                    cached and cannot be read
+     */
+    List<CandleModel> getClosedCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate);
+
+    Map<String, List<CandleModel>> getClosedCandles(Collection<String> pairNames, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate);
+
+    void putClosedCandle(String pairName, BackDealInterval interval, CandleModel model);
+
+    /**
+     * Drops the windows of the pair kept on heap, they are reloaded from redis on the next read.
+     */
+    void evict(String pairName);
+}
@@ -0,0 +1,27 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public interface ChartDataService {
+
+    List<CandleModel> getCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate);
+
+    Stream<CandleModel> streamCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate);
+
+    Stream<CandleModel> streamCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate, boolean fillGaps);
+
+    BackDealInterval getFittingInterval(BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate, int maxPoints);
+
+    List<CandleModel> getLastCandles(String pairName, BackDealInterval interval, int count);
+
+    Map<String, List<CandleModel>> getLastCandles(Collection<String> pairNames, BackDealInterval interval, int count);
+
+    CandleModel getOpenCandle(String pairName, BackDealInterval interval);
+}
@@ -1,9 +1,13 @@
 package me.exrates.chartservice.services;
 
+import me.exrates.chartservice.model.BackDealInterval;
 import me.exrates.chartservice.model.CandleModel;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public interface ElasticsearchProcessingService {
 
@@ -15,7 +19,28 @@ public interface ElasticsearchProcessingService {
 
     void update(CandleModel model, String pairName);
 
+    void insert(CandleModel model, String pairName, BackDealInterval interval);
+
+    void update(CandleModel model, String pairName, BackDealInterval interval);
+
     long deleteAll();
 
     List<CandleModel> getByQuery(LocalDateTime fromDate, LocalDateTime toDate, String pairName);
+
+    List<CandleModel> getByQuery(LocalDateTime fromDate, LocalDateTime toDate, String pairName, BackDealInterval interval);
+
+    Map<String, List<CandleModel>> getMany(Map<String, List<LocalDateTime>> openTimes, BackDealInterval interval);
+
+    Map<String, List<CandleModel>> getByQueryMany(Collection<String> pairNames, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate);
+
+    /**
+     * @return candles of the range read page by page while the stream is consumed, a page that cannot be read
+     * fails the stream with {@link me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException}
+     */
+    Stream<CandleModel> getStreamByQuery(LocalDateTime fromDate, LocalDateTime toDate, String pairName, BackDealInterval interval);
+
+    /**
+     * @return false while the cluster is degraded and requests fail fast with empty results
+     */
+    boolean isAvailable();
 }
\ No newline at end of file
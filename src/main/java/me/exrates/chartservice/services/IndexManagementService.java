@@ -0,0 +1,14 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.BackDealInterval;
+
+import java.time.LocalDateTime;
+
+public interface IndexManagementService {
+
+    void installTemplate();
+
+    String getIndex(String pairName, BackDealInterval interval, LocalDateTime candleOpenTime);
+
+    String[] getIndices(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate);
+}
@@ -0,0 +1,24 @@
+package me.exrates.chartservice.services;
+
+/**
+ * Keeper of the open candles of the owned pairs, called by {@link PairOwnershipService} when ownership changes.
+ */
+public interface PairOwnershipHandler {
+
+    /**
+     * @param state state handed off by the previous owner or null if there is none
+     */
+    void onAcquired(String pairName, byte[] state);
+
+    /**
+     * Drops the pair after writing out everything it still has to write.
+     *
+     * @return state of the pair to hand off to the next owner or null if there is none
+     */
+    byte[] onReleasing(String pairName);
+
+    /**
+     * Drops the pair whose lease has been lost, another node owns it already.
+     */
+    void onLost(String pairName);
+}
@@ -0,0 +1,35 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.TradeDataDto;
+
+public interface PairOwnershipService {
+
+    boolean isEnabled();
+
+    String getNodeId();
+
+    String getNodeQueue();
+
+    /**
+     * @return true if this node holds the pair, always true when clustering is disabled
+     */
+    boolean isOwned(String pairName);
+
+    /**
+     * Takes the pair if it is assigned to this node and nobody holds it.
+     *
+     * @return true if this node holds the pair after the call, false if it does not or that cannot be told
+     */
+    boolean acquire(String pairName);
+
+    /**
+     * Sends the trade of a pair not held by this node to the node holding or taking the pair.
+     *
+     * @throws me.exrates.chartservice.model.exceptions.TradeForwardingException if no such node is known or it
+     *                                                                          cannot be reached, the trade has to
+     *                                                                          be requeued
+     */
+    void forward(TradeDataDto dto);
+
+    void setHandler(PairOwnershipHandler handler);
+}
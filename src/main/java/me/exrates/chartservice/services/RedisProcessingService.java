@@ -0,0 +1,16 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.CandleModel;
+
+import java.util.List;
+
+public interface RedisProcessingService {
+
+    List<CandleModel> get(String key, long fromMillis, long toMillis);
+
+    Long getLoadedFrom(String key);
+
+    void put(String key, List<CandleModel> models, long loadedFrom);
+
+    void append(String key, CandleModel model);
+}
@@ -0,0 +1,19 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.TickerDto;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface TickerService {
+
+    /**
+     * @return 24 hour tickers of all pairs traded since the start of the service, ordered by pair name
+     */
+    List<TickerDto> getTickers();
+
+    /**
+     * @return 24 hour tickers of the given pairs, pairs without a ticker are left out
+     */
+    List<TickerDto> getTickers(Collection<String> pairNames);
+}
@@ -0,0 +1,23 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TradeDataDto;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface TradeDataService {
+
+    CompletableFuture<Void> handleReceivedTrade(TradeDataDto dto);
+
+    CandleModel getOpenCandle(String pairName, BackDealInterval interval);
+
+    /**
+     * Non-blocking {@link #getOpenCandle}, the future completes on the worker of the pair or on the client thread.
+     */
+    CompletableFuture<CandleModel> getOpenCandleAsync(String pairName, BackDealInterval interval);
+
+    void flush();
+
+    void addTradeListener(TradeListener listener);
+}
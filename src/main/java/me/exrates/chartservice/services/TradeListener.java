@@ -0,0 +1,13 @@
+package me.exrates.chartservice.services;
+
+import me.exrates.chartservice.model.TradeDataDto;
+
+/**
+ * Notified after a trade has been applied to the open candles, on the worker of its pair, so
+ * {@link TradeDataService#getOpenCandle} of that pair is read in place and holds the trade.
+ * Implementations must return quickly and must not block.
+ */
+public interface TradeListener {
+
+    void onTrade(TradeDataDto dto);
+}
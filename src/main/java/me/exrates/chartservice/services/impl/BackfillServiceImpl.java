@@ -0,0 +1,251 @@
+package me.exrates.chartservice.services.impl;
+
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.BackfillService;
+import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import me.exrates.chartservice.utils.TimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Rebuilds candles of every supported interval from the closed orders of the exchange database.
+ * Orders of a pair are read in time order through a forward-only cursor and folded by {@link PairCandles}, the
+ * same way live trades are, pairs are processed in parallel on a bounded pool and all of them share one rate limit.
+ * <p>
+ * Every pair stores the time of the last order whose candles reached elasticsearch. A restarted run goes back
+ * to the earliest period containing that time and rebuilds only candles opened since then, so the candles
+ * written before keep their complete values.
+ */
+@Log4j2
+@Service
+public class BackfillServiceImpl implements BackfillService {
+
+    private static final String PAIRS_SQL = "SELECT cp.id, cp.name FROM CURRENCY_PAIR cp ORDER BY cp.id";
+
+    private static final String ORDERS_SQL = "SELECT o.id, o.exrate, o.amount_base, o.amount_convert, o.date_acception " +
+            "FROM EXORDERS o " +
+            "WHERE o.currency_pair_id = ? AND o.status_id = 3 AND o.date_acception >= ? AND o.date_acception < ? " +
+            "ORDER BY o.date_acception, o.id";
+
+    private static final String CHECKPOINT_KEY_PREFIX = "backfill:checkpoint:";
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ElasticsearchProcessingService elasticsearchProcessingService;
+    private final ElasticsearchBulkWriter bulkWriter;
+    private final StringRedisTemplate redisTemplate;
+    private final int fetchSize;
+    private final int parallelism;
+    private final int checkpointEvery;
+    private final RateLimiter rateLimiter;
+
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public BackfillServiceImpl(DataSource dataSource,
+                               ElasticsearchProcessingService elasticsearchProcessingService,
+                               ElasticsearchBulkWriter bulkWriter,
+                               StringRedisTemplate redisTemplate,
+                               @Value("${backfill.fetch-size:1000}") int fetchSize,
+                               @Value("${backfill.parallelism:4}") int parallelism,
+                               @Value("${backfill.checkpoint-every:50000}") int checkpointEvery,
+                               @Value("${backfill.orders-per-second:20000}") double ordersPerSecond) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.elasticsearchProcessingService = elasticsearchProcessingService;
+        this.bulkWriter = bulkWriter;
+        this.redisTemplate = redisTemplate;
+        this.fetchSize = fetchSize;
+        this.parallelism = parallelism;
+        this.checkpointEvery = checkpointEvery;
+        this.rateLimiter = RateLimiter.create(ordersPerSecond);
+    }
+
+    @Override
+    public boolean start(boolean reset) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        final LocalDateTime toDate = LocalDateTime.now();
+
+        coordinator.execute(() -> {
+            try {
+                run(reset, toDate);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Override
+    public Map<String, LocalDateTime> getCheckpoints() {
+        Map<String, LocalDateTime> checkpoints = new LinkedHashMap<>();
+        getPairs().values().forEach(pairName -> {
+            LocalDateTime checkpoint = getCheckpoint(pairName);
+            if (!isNull(checkpoint)) {
+                checkpoints.put(pairName, checkpoint);
+            }
+        });
+        return checkpoints;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+    }
+
+    private void run(boolean reset, LocalDateTime toDate) {
+        final Map<Integer, String> pairs = getPairs();
+        log.info("Backfill of {} pairs up to {} started", pairs.size(), toDate);
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> futures = new ArrayList<>(pairs.size());
+            pairs.forEach((pairId, pairName) -> futures.add(workers.submit(() -> backfillPair(pairId, pairName, reset, toDate))));
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            log.info("Backfill of {} pairs up to {} finished", pairs.size(), toDate);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.warn("Backfill interrupted");
+        } catch (ExecutionException ex) {
+            log.error("Backfill failed", ex);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void backfillPair(int pairId, String pairName, boolean reset, LocalDateTime toDate) {
+        if (reset) {
+            redisTemplate.delete(CHECKPOINT_KEY_PREFIX + pairName);
+        }
+        final LocalDateTime checkpoint = getCheckpoint(pairName);
+        final LocalDateTime fromDate = isNull(checkpoint) ? EPOCH : getResumeTime(checkpoint);
+        if (!fromDate.isBefore(toDate)) {
+            return;
+        }
+
+        final PairCandles candles = new PairCandles(TradeDataServiceImpl.SUPPORTED_INTERVALS, TradeDataServiceImpl.ROLLUP_SOURCES);
+        final Timestamp fromTimestamp = Timestamp.valueOf(fromDate);
+        final long[] count = {0L};
+
+        try {
+            jdbcTemplate.query(ORDERS_SQL, ps -> {
+                ps.setInt(1, pairId);
+                ps.setTimestamp(2, fromTimestamp);
+                ps.setTimestamp(3, Timestamp.valueOf(toDate));
+            }, (RowCallbackHandler) rs -> {
+                TradeDataDto dto = new TradeDataDto();
+                dto.setOrderId(rs.getInt("id"));
+                dto.setPairName(pairName);
+                dto.setExrate(rs.getBigDecimal("exrate"));
+                dto.setAmountBase(rs.getBigDecimal("amount_base"));
+                dto.setAmountConvert(rs.getBigDecimal("amount_convert"));
+                dto.setTradeDate(rs.getTimestamp("date_acception").toLocalDateTime());
+
+                rateLimiter.acquire();
+                candles.apply(dto);
+
+                count[0]++;
+                if (count[0] % fetchSize == 0) {
+                    write(pairName, fromDate, candles.drainClosed());
+                }
+                if (count[0] % checkpointEvery == 0) {
+                    write(pairName, fromDate, candles.drainClosed());
+                    bulkWriter.flush();
+                    saveCheckpoint(pairName, dto.getTradeDate());
+                }
+            });
+
+            write(pairName, fromDate, candles.drainClosed());
+            write(pairName, fromDate, candles.drain());
+            bulkWriter.flush();
+            saveCheckpoint(pairName, toDate);
+
+            log.info("Backfilled {} orders of pair {} from {}", count[0], pairName, fromDate);
+        } catch (Exception ex) {
+            log.error("Backfill of pair {} stopped after {} orders", pairName, count[0], ex);
+        }
+    }
+
+    /**
+     * Candles opened before the resume time were complete when the checkpoint was saved and must not be
+     * overwritten with their tails.
+     */
+    private void write(String pairName, LocalDateTime fromDate, List<PairCandles.PendingCandle> candles) {
+        candles.forEach(candle -> {
+            if (!candle.model.getCandleOpenTime().isBefore(fromDate)) {
+                elasticsearchProcessingService.insert(candle.model, pairName, candle.interval);
+            }
+        });
+    }
+
+    /**
+     * @return the earliest open time among the candles of all intervals containing the checkpoint
+     */
+    private LocalDateTime getResumeTime(LocalDateTime checkpoint) {
+        LocalDateTime resumeTime = checkpoint;
+        for (BackDealInterval interval : TradeDataServiceImpl.SUPPORTED_INTERVALS) {
+            LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, checkpoint);
+            if (openTime.isBefore(resumeTime)) {
+                resumeTime = openTime;
+            }
+        }
+        return resumeTime;
+    }
+
+    private Map<Integer, String> getPairs() {
+        Map<Integer, String> pairs = new LinkedHashMap<>();
+        try {
+            jdbcTemplate.query(PAIRS_SQL, (RowCallbackHandler) rs -> pairs.put(rs.getInt("id"), rs.getString("name")));
+        } catch (Exception ex) {
+            log.error("Problem with reading currency pairs", ex);
+            return Collections.emptyMap();
+        }
+        return pairs;
+    }
+
+    private LocalDateTime getCheckpoint(String pairName) {
+        String value = redisTemplate.opsForValue().get(CHECKPOINT_KEY_PREFIX + pairName);
+
+        return isNull(value) ? null : new Timestamp(Long.parseLong(value)).toLocalDateTime();
+    }
+
+    private void saveCheckpoint(String pairName, LocalDateTime checkpoint) {
+        redisTemplate.opsForValue().set(CHECKPOINT_KEY_PREFIX + pairName, String.valueOf(Timestamp.valueOf(checkpoint).getTime()));
+    }
+}
@@ -0,0 +1,267 @@
+package me.exrates.chartservice.services.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.CandleSeries;
+import me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException;
+import me.exrates.chartservice.services.CandleCacheService;
+import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import me.exrates.chartservice.services.PairOwnershipService;
+import me.exrates.chartservice.services.RedisProcessingService;
+import me.exrates.chartservice.utils.TimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Read-through cache of closed candles in front of elasticsearch.
+ * Every (pair, interval) has a window of its latest closed candles, kept on heap (bounded number of windows,
+ * least recently used evicted first) and in redis. Closed candles never change, so windows are never invalidated:
+ * they only grow through {@link #putClosedCandle} from the ingest path and are trimmed to the window size.
+ * A read counts as a hit when the window covers the requested range and as a miss when it goes to elasticsearch.
+ * Windows of the pairs held by another node of the cluster grow on that node only, so they are read from redis
+ * on every request instead of being kept on heap.
+ * While elasticsearch is degraded a single pair read the window does not cover fails with
+ * {@link ElasticsearchUnavailableException} rather than returning a shortened range, multi-pair reads serve
+ * such pairs from their windows as they are. Nothing read during that time is cached, so a failed read never
+ * marks a window complete.
+ */
+@Log4j2
+@Service
+public class CandleCacheServiceImpl implements CandleCacheService {
+
+    private final ElasticsearchProcessingService elasticsearchProcessingService;
+    private final RedisProcessingService redisProcessingService;
+    private final PairOwnershipService pairOwnershipService;
+    private final int windowSize;
+
+    private final Cache<String, CandleWindow> windows;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter degradedCounter;
+
+    @Autowired
+    public CandleCacheServiceImpl(ElasticsearchProcessingService elasticsearchProcessingService,
+                                  RedisProcessingService redisProcessingService,
+                                  PairOwnershipService pairOwnershipService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${candles.cache.window-size:1000}") int windowSize,
+                                  @Value("${candles.cache.max-windows:5000}") int maxWindows) {
+        this.elasticsearchProcessingService = elasticsearchProcessingService;
+        this.redisProcessingService = redisProcessingService;
+        this.pairOwnershipService = pairOwnershipService;
+        this.windowSize = windowSize;
+        this.windows = CacheBuilder.newBuilder()
+                .maximumSize(maxWindows)
+                .recordStats()
+                .build();
+
+        GuavaCacheMetrics.monitor(meterRegistry, windows, "candles.windows");
+        this.hitCounter = meterRegistry.counter("candles.cache.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("candles.cache.requests", "result", "miss");
+        this.degradedCounter = meterRegistry.counter("candles.cache.requests", "result", "degraded");
+    }
+
+    @Override
+    public List<CandleModel> getClosedCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        final String key = prepareKey(pairName, interval);
+        final long fromMillis = Timestamp.valueOf(fromDate).getTime();
+        final long toMillis = Timestamp.valueOf(toDate).getTime();
+
+        CandleWindow window = getWindow(pairName, key);
+
+        if (fromMillis >= window.loadedFrom) {
+            hitCounter.increment();
+            return window.range(fromMillis, toMillis);
+        }
+        if (!elasticsearchProcessingService.isAvailable()) {
+            degradedCounter.increment();
+            throw new ElasticsearchUnavailableException("Elasticsearch cluster is degraded, candles of pair " + pairName + " are not cached from " + fromDate);
+        }
+        missCounter.increment();
+
+        final LocalDateTime upperDate = window.loadedFrom == Long.MAX_VALUE
+                ? TimeUtils.getNearestTimeBefore(interval, LocalDateTime.now())
+                : new Timestamp(window.loadedFrom).toLocalDateTime();
+        final long upperMillis = Timestamp.valueOf(upperDate).getTime();
+
+        List<CandleModel> loaded;
+        try {
+            loaded = elasticsearchProcessingService.getByQuery(fromDate, upperDate, pairName, interval).stream()
+                    .filter(model -> model.getTimeInMillis() < upperMillis)
+                    .collect(toList());
+        } catch (ElasticsearchUnavailableException ex) {
+            log.warn("Problem with loading candles of pair {} into cache", pairName, ex);
+            degradedCounter.increment();
+            throw ex;
+        }
+        if (!elasticsearchProcessingService.isAvailable()) {
+            return window.peek(loaded, fromMillis, toMillis);
+        }
+
+        List<CandleModel> result = window.merge(loaded, fromMillis, windowSize, fromMillis, toMillis);
+        redisProcessingService.put(key, loaded, window.loadedFrom);
+
+        return result;
+    }
+
+    /**
+     * Serves the pairs whose windows cover the range from the cache and reads the rest from elasticsearch
+     * in one round trip, up to the current open time so that their windows stay complete.
+     */
+    @Override
+    public Map<String, List<CandleModel>> getClosedCandles(Collection<String> pairNames, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        final long fromMillis = Timestamp.valueOf(fromDate).getTime();
+        final long toMillis = Timestamp.valueOf(toDate).getTime();
+
+        Map<String, List<CandleModel>> result = new HashMap<>();
+        Map<String, CandleWindow> missed = new HashMap<>();
+        for (String pairName : pairNames) {
+            CandleWindow window = getWindow(pairName, prepareKey(pairName, interval));
+            if (fromMillis >= window.loadedFrom) {
+                result.put(pairName, window.range(fromMillis, toMillis));
+            } else {
+                missed.put(pairName, window);
+            }
+        }
+        hitCounter.increment(result.size());
+        if (missed.isEmpty()) {
+            return result;
+        }
+        if (!elasticsearchProcessingService.isAvailable()) {
+            degradedCounter.increment(missed.size());
+            missed.forEach((pairName, window) -> result.put(pairName, window.range(fromMillis, toMillis)));
+            return result;
+        }
+        missCounter.increment(missed.size());
+
+        final LocalDateTime upperDate = TimeUtils.getNearestTimeBefore(interval, LocalDateTime.now());
+        final long upperMillis = Timestamp.valueOf(upperDate).getTime();
+
+        Map<String, List<CandleModel>> loaded = elasticsearchProcessingService.getByQueryMany(missed.keySet(), interval, fromDate, upperDate);
+        final boolean available = elasticsearchProcessingService.isAvailable();
+
+        missed.forEach((pairName, window) -> {
+            if (!loaded.containsKey(pairName)) {
+                degradedCounter.increment();
+                result.put(pairName, window.range(fromMillis, toMillis));
+                return;
+            }
+            List<CandleModel> models = loaded.get(pairName).stream()
+                    .filter(model -> model.getTimeInMillis() < upperMillis)
+                    .collect(toList());
+
+            if (!available) {
+                result.put(pairName, window.peek(models, fromMillis, toMillis));
+                return;
+            }
+            result.put(pairName, window.merge(models, fromMillis, windowSize, fromMillis, toMillis));
+            redisProcessingService.put(prepareKey(pairName, interval), models, window.loadedFrom);
+        });
+        return result;
+    }
+
+    @Override
+    public void putClosedCandle(String pairName, BackDealInterval interval, CandleModel model) {
+        final String key = prepareKey(pairName, interval);
+
+        CandleWindow window = windows.getIfPresent(key);
+        if (!isNull(window)) {
+            window.merge(Collections.singletonList(model), window.loadedFrom, windowSize, 0, 0);
+        }
+        redisProcessingService.append(key, model);
+    }
+
+    @Override
+    public void evict(String pairName) {
+        windows.invalidateAll(BackDealInterval.getSupported().stream()
+                .map(interval -> prepareKey(pairName, interval))
+                .collect(toList()));
+    }
+
+    private CandleWindow getWindow(String pairName, String key) {
+        if (!pairOwnershipService.isOwned(pairName)) {
+            return loadWindow(key);
+        }
+        try {
+            return windows.get(key, () -> loadWindow(key));
+        } catch (ExecutionException ex) {
+            log.warn("Problem with loading candles window {}", key, ex);
+            return new CandleWindow();
+        }
+    }
+
+    private CandleWindow loadWindow(String key) {
+        CandleWindow window = new CandleWindow();
+
+        Long loadedFrom = redisProcessingService.getLoadedFrom(key);
+        if (!isNull(loadedFrom)) {
+            window.series = CandleSeries.of(redisProcessingService.get(key, loadedFrom, Long.MAX_VALUE));
+            window.loadedFrom = loadedFrom;
+        }
+        return window;
+    }
+
+    private String prepareKey(String pairName, BackDealInterval interval) {
+        return pairName.replace("/", "_").toLowerCase() + "_" + interval.getKey();
+    }
+
+    /**
+     * Latest closed candles of one pair and interval, complete from {@code loadedFrom} onwards.
+     * The series is replaced as a whole on every change, so reads need no locking.
+     */
+    private static final class CandleWindow {
+
+        private volatile CandleSeries series = CandleSeries.empty();
+        private volatile long loadedFrom = Long.MAX_VALUE;
+
+        private List<CandleModel> range(long fromMillis, long toMillis) {
+            return series.toCandleModels(fromMillis, toMillis);
+        }
+
+        /**
+         * @return requested range of the window with the given candles added, leaving the window unchanged
+         */
+        private List<CandleModel> peek(List<CandleModel> models, long fromMillis, long toMillis) {
+            return series.merge(CandleSeries.of(models)).toCandleModels(fromMillis, toMillis);
+        }
+
+        /**
+         * Adds the candles, extends the complete range down to {@code loadedFrom} and trims the window,
+         * returning the requested range as it was before trimming.
+         */
+        private synchronized List<CandleModel> merge(List<CandleModel> models, long loadedFrom, int windowSize,
+                                                     long fromMillis, long toMillis) {
+            CandleSeries merged = series.merge(CandleSeries.of(models));
+            this.loadedFrom = Math.min(this.loadedFrom, loadedFrom);
+
+            List<CandleModel> result = merged.toCandleModels(fromMillis, toMillis);
+
+            if (merged.size() > windowSize) {
+                merged = merged.tail(windowSize);
+                this.loadedFrom = merged.getTime(0);
+            }
+            series = merged;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package me.exrates.chartservice.services.impl;
+
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.FixedPointCandle;
+import me.exrates.chartservice.model.TradeDataDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Local write-ahead journal of applied trades, used to rebuild the open candles on startup without the cluster.
+ * <p>
+ * Trades are appended as fixed size records to memory mapped segment files of {@code segment-records} records,
+ * a record counts once its sequence number, written last, is not zero. A snapshot holds the serialized candles
+ * state of every pair together with the sequence number of the last trade it contains, once it is written the
+ * segments before it are deleted. Recovery reads the latest snapshot and replays the newer records of the
+ * remaining segments.
+ * <p>
+ * Appends take no lock: every worker reserves its record slot by incrementing the slot counter of the current
+ * segment and writes only that slot, the sequence number of a record is the first sequence of its segment plus
+ * the slot. Only rolling to the next segment is serialized. Records of one pair come from its worker, so they
+ * follow each other in slot order. A crash may leave empty slots between the records written concurrently,
+ * so recovery reads every slot of a segment and skips the empty ones.
+ */
+@Log4j2
+@Component
+public class CandleJournal {
+
+    static final int RECORD_SIZE = 48;
+
+    private static final int SNAPSHOT_MAGIC = 0x434A5334;
+    private static final String PAIRS_FILE = "pairs";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentRecords;
+
+    private final Map<String, Integer> pairIds = new ConcurrentHashMap<>();
+    private final List<String> pairNames = new ArrayList<>();
+    private final Map<String, Long> lastSequences = new ConcurrentHashMap<>();
+    private final Object rollLock = new Object();
+
+    private volatile Segment segment;
+    private long nextSequence = 1L;
+
+    @Autowired
+    public CandleJournal(@Value("${candles.journal.enabled:true}") boolean enabled,
+                         @Value("${candles.journal.directory:journal}") String directory,
+                         @Value("${candles.journal.segment-records:1000000}") int segmentRecords) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentRecords = segmentRecords;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reads the latest snapshot and the records written after it, restoring the state of a pair before its trades.
+     * A journal that cannot be read is moved aside and a new one is started.
+     *
+     * @param states consumer of the serialized state of every pair in the snapshot
+     * @param trades consumer of the trades written after the snapshot, in the order they were applied
+     * @return false if the journal could not be read and the consumed state must be dropped
+     */
+    /**
+     * Appends go to a new segment after the recovery, so no slot of a recovered segment is written again.
+     */
+    public boolean recover(BiConsumer<String, byte[]> states, Consumer<TradeDataDto> trades) {
+        if (!enabled) {
+            return true;
+        }
+        synchronized (rollLock) {
+            try {
+                Files.createDirectories(directory);
+                readPairs();
+
+                Map<String, Long> snapshotSequences = readSnapshot(states);
+                long recovered = 0L;
+
+                for (Path path : listFiles(SEGMENT_PREFIX)) {
+                    MappedByteBuffer buffer = map(path);
+                    for (int position = 0; position + RECORD_SIZE <= buffer.capacity(); position += RECORD_SIZE) {
+                        final long sequence = buffer.getLong(position);
+                        if (sequence == 0L) {
+                            continue;
+                        }
+                        TradeDataDto dto = readRecord(buffer, position);
+                        nextSequence = Math.max(nextSequence, sequence + 1);
+                        lastSequences.put(dto.getPairName(), sequence);
+
+                        if (sequence > snapshotSequences.getOrDefault(dto.getPairName(), 0L)) {
+                            trades.accept(dto);
+                            recovered++;
+                        }
+                    }
+                }
+                segment = null;
+                log.info("Recovered {} pairs with {} journaled trades", pairNames.size(), recovered);
+                return true;
+            } catch (IOException | RuntimeException ex) {
+                log.error("Problem with recovering candles from journal {}, starting with empty state", directory, ex);
+                reset();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Appends the trade, to be called by the owner of the pair right before it applies the trade. Trades of
+     * different pairs are appended concurrently.
+     */
+    public void append(TradeDataDto dto) {
+        if (!enabled) {
+            return;
+        }
+        final int rateScale = scaleOf(dto.getExrate());
+        final int amountScale = scaleOf(dto.getAmountBase());
+        if (rateScale < 0 || amountScale < 0) {
+            log.warn("Trade {} is out of the journal range and will not be recovered", dto.getOrderId());
+            return;
+        }
+        final long rate = toUnscaled(dto.getExrate(), rateScale);
+        final long amount = toUnscaled(dto.getAmountBase(), amountScale);
+
+        try {
+            final int pairId = getPairId(dto.getPairName());
+
+            Segment current = segment;
+            int slot = isNull(current) ? segmentRecords : current.slots.getAndIncrement();
+            while (slot >= segmentRecords) {
+                current = next(current);
+                slot = current.slots.getAndIncrement();
+            }
+            final long sequence = current.firstSequence + slot;
+            final MappedByteBuffer buffer = current.buffer;
+            final int position = slot * RECORD_SIZE;
+
+            buffer.putInt(position + 8, pairId);
+            buffer.putInt(position + 12, dto.getOrderId());
+            buffer.putLong(position + 16, Timestamp.valueOf(dto.getTradeDate()).getTime());
+            buffer.putLong(position + 24, rate);
+            buffer.putLong(position + 32, amount);
+            buffer.put(position + 40, (byte) rateScale);
+            buffer.put(position + 41, (byte) amountScale);
+            buffer.putLong(position, sequence);
+
+            lastSequences.put(dto.getPairName(), sequence);
+        } catch (IOException ex) {
+            log.error("Problem with writing trade {} to journal", dto.getOrderId(), ex);
+        }
+    }
+
+    /**
+     * To be called by the owner of the pair, it reflects the trades appended by that owner only.
+     */
+    public long getLastSequence(String pairName) {
+        return lastSequences.getOrDefault(pairName, 0L);
+    }
+
+    /**
+     * Starts a new segment, every record appended before the call is in the older segments. A worker that
+     * reserved its slot in the older segment before the roll may still be writing it, so a pair has to be
+     * captured on its worker after the roll for its captured state to cover all its records there.
+     *
+     * @return the new segment
+     */
+    public Path roll() throws IOException {
+        synchronized (rollLock) {
+            return startSegment().path;
+        }
+    }
+
+    /**
+     * @return the segment after the given full one, started by the first worker finding it full
+     */
+    private Segment next(Segment full) throws IOException {
+        synchronized (rollLock) {
+            return segment == full ? startSegment() : segment;
+        }
+    }
+
+    /**
+     * Closes the current segment to new reservations and starts the next one with the sequence after its
+     * last reserved slot.
+     */
+    private Segment startSegment() throws IOException {
+        final Segment previous = segment;
+        if (!isNull(previous)) {
+            nextSequence = previous.firstSequence + Math.min(segmentRecords, previous.slots.getAndSet(segmentRecords));
+            previous.buffer.force();
+        }
+        Path path = directory.resolve(String.format("%s%020d", SEGMENT_PREFIX, nextSequence));
+        Segment started = new Segment(path, map(path), nextSequence);
+        segment = started;
+        return started;
+    }
+
+    /**
+     * Writes the snapshot of the states captured after the roll to the given segment and deletes the segments
+     * and snapshots it replaces.
+     *
+     * @param current   segment started before the states were captured
+     * @param states    serialized state of every pair
+     * @param sequences sequence number of the last trade contained in the state of every pair
+     */
+    public void writeSnapshot(Path current, Map<String, byte[]> states, Map<String, Long> sequences) throws IOException {
+        force();
+
+        final Path snapshot = directory.resolve(SNAPSHOT_PREFIX + current.getFileName().toString().substring(SEGMENT_PREFIX.length()));
+        final Path temporary = directory.resolve(snapshot.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(states.size());
+            for (Map.Entry<String, byte[]> entry : states.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(sequences.getOrDefault(entry.getKey(), 0L));
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path path : listFiles(SNAPSHOT_PREFIX)) {
+            if (path.compareTo(snapshot) < 0) {
+                Files.deleteIfExists(path);
+            }
+        }
+        for (Path path : listFiles(SEGMENT_PREFIX)) {
+            if (path.compareTo(current) < 0) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public void force() {
+        final Segment current = segment;
+        if (!isNull(current)) {
+            current.buffer.force();
+        }
+    }
+
+    private void reset() {
+        segment = null;
+        nextSequence = 1L;
+        pairIds.clear();
+        pairNames.clear();
+        lastSequences.clear();
+        try {
+            if (Files.exists(directory)) {
+                Files.move(directory, directory.resolveSibling(directory.getFileName() + ".corrupted-" + System.currentTimeMillis()));
+            }
+            Files.createDirectories(directory);
+        } catch (IOException ex) {
+            log.error("Problem with moving aside journal {}", directory, ex);
+        }
+    }
+
+    private Map<String, Long> readSnapshot(BiConsumer<String, byte[]> states) throws IOException {
+        List<Path> snapshots = listFiles(SNAPSHOT_PREFIX);
+        if (snapshots.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Long> sequences = new HashMap<>();
+        try (InputStream stream = Files.newInputStream(snapshots.get(snapshots.size() - 1));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a candles snapshot");
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String pairName = in.readUTF();
+                final long sequence = in.readLong();
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+
+                sequences.put(pairName, sequence);
+                lastSequences.put(pairName, sequence);
+                nextSequence = Math.max(nextSequence, sequence + 1);
+                states.accept(pairName, state);
+            }
+        }
+        return sequences;
+    }
+
+    private TradeDataDto readRecord(MappedByteBuffer buffer, int position) {
+        TradeDataDto dto = new TradeDataDto();
+        dto.setPairName(pairNames.get(buffer.getInt(position + 8)));
+        dto.setOrderId(buffer.getInt(position + 12));
+        dto.setTradeDate(new Timestamp(buffer.getLong(position + 16)).toLocalDateTime());
+        dto.setExrate(BigDecimal.valueOf(buffer.getLong(position + 24), buffer.get(position + 40)));
+        dto.setAmountBase(BigDecimal.valueOf(buffer.getLong(position + 32), buffer.get(position + 41)));
+        return dto;
+    }
+
+    private void readPairs() throws IOException {
+        Path path = directory.resolve(PAIRS_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        for (String pairName : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (!pairName.isEmpty()) {
+                pairIds.put(pairName, pairNames.size());
+                pairNames.add(pairName);
+            }
+        }
+    }
+
+    private int getPairId(String pairName) throws IOException {
+        Integer pairId = pairIds.get(pairName);
+        if (!isNull(pairId)) {
+            return pairId;
+        }
+        return addPair(pairName);
+    }
+
+    private synchronized int addPair(String pairName) throws IOException {
+        Integer pairId = pairIds.get(pairName);
+        if (!isNull(pairId)) {
+            return pairId;
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(PAIRS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(StandardCharsets.UTF_8.encode(pairName + "\n"));
+            channel.force(true);
+        }
+        pairNames.add(pairName);
+        pairIds.put(pairName, pairNames.size() - 1);
+        return pairNames.size() - 1;
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE);
+        }
+    }
+
+    private List<Path> listFiles(String prefix) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> path.getFileName().toString().startsWith(prefix) && !path.getFileName().toString().endsWith(".tmp"))
+                    .sorted()
+                    .collect(toList());
+        }
+    }
+
+    private static long toUnscaled(BigDecimal value, int scale) {
+        return value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * @return the scale that keeps all digits of the value, up to {@link FixedPointCandle#MAX_SCALE}, lowered
+     * until its unscaled value fits a long, or -1 if it does not fit at any scale
+     */
+    private static int scaleOf(BigDecimal value) {
+        if (value.scale() >= 0 && value.scale() <= FixedPointCandle.MAX_SCALE && value.precision() <= 18) {
+            return value.scale();
+        }
+        for (int scale = Math.max(0, FixedPointCandle.fitScale(value, 0)); scale >= 0; scale--) {
+            try {
+                toUnscaled(value, scale);
+                return scale;
+            } catch (ArithmeticException ex) {
+                log.debug("Value {} does not fit into scale {}", value, scale);
+            }
+        }
+        return -1;
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final long firstSequence;
+        private final AtomicInteger slots = new AtomicInteger();
+
+        private Segment(Path path, MappedByteBuffer buffer, long firstSequence) {
+            this.path = path;
+            this.buffer = buffer;
+            this.firstSequence = firstSequence;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package me.exrates.chartservice.services.impl;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.exceptions.UnsupportedIntervalTypeException;
+import me.exrates.chartservice.services.CandleCacheService;
+import me.exrates.chartservice.services.ChartDataService;
+import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import me.exrates.chartservice.services.TradeDataService;
+import me.exrates.chartservice.utils.CandleStreams;
+import me.exrates.chartservice.utils.TimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+
+@Service
+public class ChartDataServiceImpl implements ChartDataService {
+
+    private final CandleCacheService candleCacheService;
+    private final TradeDataService tradeDataService;
+    private final ElasticsearchProcessingService elasticsearchProcessingService;
+    private final int windowSize;
+
+    @Autowired
+    public ChartDataServiceImpl(CandleCacheService candleCacheService,
+                                TradeDataService tradeDataService,
+                                ElasticsearchProcessingService elasticsearchProcessingService,
+                                @Value("${candles.cache.window-size:1000}") int windowSize) {
+        this.candleCacheService = candleCacheService;
+        this.tradeDataService = tradeDataService;
+        this.elasticsearchProcessingService = elasticsearchProcessingService;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public List<CandleModel> getCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, LocalDateTime.now());
+        final LocalDateTime closedToDate = toDate.isAfter(openTime) ? openTime : toDate;
+
+        List<CandleModel> models = candleCacheService.getClosedCandles(pairName, interval, fromDate, closedToDate);
+
+        if (toDate.isAfter(openTime)) {
+            CandleModel openCandle = tradeDataService.getOpenCandle(pairName, interval);
+            if (!isNull(openCandle)
+                    && !openCandle.getCandleOpenTime().isBefore(fromDate)
+                    && openCandle.getCandleOpenTime().isBefore(toDate)) {
+                appendOpenCandle(models, openCandle);
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Ranges that fit into a cache window are served from {@link #getCandles}, longer ones are streamed
+     * page by page straight from elasticsearch and never materialized or cached.
+     */
+    @Override
+    public Stream<CandleModel> streamCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        if (getCandlesCount(interval, fromDate, toDate) <= windowSize) {
+            return getCandles(pairName, interval, fromDate, toDate).stream();
+        }
+
+        final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, LocalDateTime.now());
+        final LocalDateTime closedToDate = toDate.isAfter(openTime) ? openTime : toDate;
+
+        Stream<CandleModel> closed = elasticsearchProcessingService.getStreamByQuery(fromDate, closedToDate, pairName, interval);
+        if (!toDate.isAfter(openTime)) {
+            return closed;
+        }
+        CandleModel openCandle = tradeDataService.getOpenCandle(pairName, interval);
+        if (isNull(openCandle)
+                || openCandle.getCandleOpenTime().isBefore(fromDate)
+                || !openCandle.getCandleOpenTime().isBefore(toDate)) {
+            return closed;
+        }
+        final long openMillis = openCandle.getTimeInMillis();
+
+        return Stream.concat(closed.filter(model -> model.getTimeInMillis() < openMillis), Stream.of(openCandle));
+    }
+
+    /**
+     * Streams candles of a supported interval, or of any multiple of one by merging the candles of the supported
+     * interval on the fly. With {@code fillGaps} periods without trades are filled up to the current open period.
+     */
+    @Override
+    public Stream<CandleModel> streamCandles(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate, boolean fillGaps) {
+        final BackDealInterval layer = interval.getOrdinal() >= 0 ? interval : getLayer(interval);
+
+        Stream<CandleModel> models = streamCandles(pairName, layer, fromDate, toDate);
+        if (fillGaps) {
+            final LocalDateTime nextOpenTime = TimeUtils.getNextTime(layer, TimeUtils.getNearestTimeBefore(layer, LocalDateTime.now()));
+            models = CandleStreams.fillGaps(models, layer, toDate.isAfter(nextOpenTime) ? nextOpenTime : toDate);
+        }
+        if (layer != interval) {
+            models = CandleStreams.merge(models, interval);
+        }
+        return models;
+    }
+
+    /**
+     * Returns the finest supported interval, not finer than the given one, with at most {@code maxPoints} candles
+     * in the range. If even the coarsest supported interval has more, returns the smallest multiple of it that fits.
+     */
+    @Override
+    public BackDealInterval getFittingInterval(BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate, int maxPoints) {
+        final List<BackDealInterval> supported = BackDealInterval.getSupported();
+
+        for (int i = Math.max(0, interval.getOrdinal()); i < supported.size(); i++) {
+            if (getCandlesCount(supported.get(i), fromDate, toDate) <= maxPoints) {
+                return supported.get(i);
+            }
+        }
+        final BackDealInterval coarsest = supported.get(supported.size() - 1);
+        final long factor = (getCandlesCount(coarsest, fromDate, toDate) + maxPoints - 1) / maxPoints;
+
+        return new BackDealInterval((int) (coarsest.getIntervalValue() * factor), coarsest.getIntervalType());
+    }
+
+    @Override
+    public List<CandleModel> getLastCandles(String pairName, BackDealInterval interval, int count) {
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, now);
+        final LocalDateTime fromDate = openTime.minus((long) (count - 1) * interval.getIntervalValue(),
+                interval.getIntervalType().getCorrespondingTimeUnit());
+
+        return getCandles(pairName, interval, fromDate, TimeUtils.getNextTime(interval, openTime));
+    }
+
+    @Override
+    public Map<String, List<CandleModel>> getLastCandles(Collection<String> pairNames, BackDealInterval interval, int count) {
+        final LocalDateTime now = LocalDateTime.now();
+        final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, now);
+        final LocalDateTime fromDate = openTime.minus((long) (count - 1) * interval.getIntervalValue(),
+                interval.getIntervalType().getCorrespondingTimeUnit());
+
+        Map<String, List<CandleModel>> result = candleCacheService.getClosedCandles(pairNames, interval, fromDate, openTime);
+
+        for (String pairName : pairNames) {
+            List<CandleModel> models = result.computeIfAbsent(pairName, key -> new ArrayList<>());
+            CandleModel openCandle = tradeDataService.getOpenCandle(pairName, interval);
+            if (!isNull(openCandle) && !openCandle.getCandleOpenTime().isBefore(fromDate)) {
+                appendOpenCandle(models, openCandle);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * For a multiple of a supported interval returns the open candle of the supported one.
+     */
+    @Override
+    public CandleModel getOpenCandle(String pairName, BackDealInterval interval) {
+        return tradeDataService.getOpenCandle(pairName, interval.getOrdinal() >= 0 ? interval : getLayer(interval));
+    }
+
+    /**
+     * Appends the open candle to the closed ones ordered by time. A closed candle of the same period, written
+     * before the open one is rolled, is replaced by it.
+     */
+    private static void appendOpenCandle(List<CandleModel> models, CandleModel openCandle) {
+        final long openMillis = openCandle.getTimeInMillis();
+        while (!models.isEmpty() && models.get(models.size() - 1).getTimeInMillis() >= openMillis) {
+            models.remove(models.size() - 1);
+        }
+        models.add(openCandle);
+    }
+
+    private static long getCandlesCount(BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        return interval.getIntervalType().getCorrespondingTimeUnit().between(fromDate, toDate) / interval.getIntervalValue();
+    }
+
+    /**
+     * @return coarsest supported interval of the same type the given interval is a multiple of
+     */
+    private static BackDealInterval getLayer(BackDealInterval interval) {
+        BackDealInterval layer = null;
+        for (BackDealInterval supported : BackDealInterval.getSupported()) {
+            if (supported.getIntervalType() == interval.getIntervalType()
+                    && interval.getIntervalValue() % supported.getIntervalValue() == 0) {
+                layer = supported;
+            }
+        }
+        if (isNull(layer)) {
+            throw new UnsupportedIntervalTypeException(interval.getInterval());
+        }
+        return layer;
+    }
+}
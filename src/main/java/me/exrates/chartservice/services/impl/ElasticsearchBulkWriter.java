@@ -0,0 +1,376 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.EqualsAndHashCode;
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Write-behind buffer for candle documents.
+ * Pending writes are coalesced by index and id, so only the last state of a candle is sent. The buffer is
+ * flushed through the bulk api when it reaches the batch size or on the flush interval, whichever comes first.
+ * Batches are sent as prebuilt bulk bodies through the low level client, gzipped above the compression threshold,
+ * as the high level client of this version cannot compress requests.
+ * While the {@link ElasticsearchCircuitBreaker} is open nothing is sent and only the scheduled flush probes the
+ * cluster, writes keep being coalesced in the buffer. Items the cluster turns away for overload count as a
+ * failure of the request.
+ * <p>
+ * The buffer holds at most {@code max-pending} documents. A write of a new document into a full buffer flushes it
+ * on the writing thread when the cluster lets it, otherwise it waits until a flush makes room, so the writers are
+ * held back rather than the buffer growing while the cluster is down. Newer states of buffered documents are
+ * always taken.
+ * <p>
+ * A failed write stays in the buffer until it is taken, backing off exponentially between attempts, and a newer
+ * state of the same candle replaces it. Only documents the cluster rejects as malformed are dropped, replaying them
+ * would be rejected the same way. Every write gets a sequence and a buffered write keeps the sequence of the oldest
+ * state it carries. A batch stays in flight until the cluster has answered, so {@link #isWrittenThrough(long)} tells
+ * if everything written up to a point has been acknowledged, not only taken out of the buffer.
+ */
+@Log4j2
+@Component
+public class ElasticsearchBulkWriter {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+    private static final String GZIP = "gzip";
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final int batchSize;
+    private final int maxPending;
+    private final long retryBackoff;
+    private final long maxBackoff;
+    private final boolean compression;
+    private final int compressionThreshold;
+
+    private final Map<DocumentKey, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final Set<PendingWrite> inFlight = ConcurrentHashMap.newKeySet();
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    private final Object capacity = new Object();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Timer flushTimer;
+    private final Counter writtenCounter;
+    private final Counter retriedCounter;
+    private final Counter droppedCounter;
+
+    @Autowired
+    public ElasticsearchBulkWriter(RestHighLevelClient client,
+                                   ElasticsearchCircuitBreaker circuitBreaker,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${elasticsearch.bulk.batch-size:500}") int batchSize,
+                                   @Value("${elasticsearch.bulk.max-pending:20000}") int maxPending,
+                                   @Value("${elasticsearch.bulk.retry-backoff:100}") long retryBackoff,
+                                   @Value("${elasticsearch.bulk.max-backoff:${elasticsearch.breaker.open-duration:10000}}") long maxBackoff,
+                                   @Value("${elasticsearch.client.compression:true}") boolean compression,
+                                   @Value("${elasticsearch.client.compression-threshold:2048}") int compressionThreshold) {
+        this.client = client;
+        this.circuitBreaker = circuitBreaker;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.retryBackoff = retryBackoff;
+        this.maxBackoff = maxBackoff;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+
+        this.flushTimer = meterRegistry.timer("elasticsearch.bulk.flush");
+        this.writtenCounter = meterRegistry.counter("elasticsearch.bulk.written");
+        this.retriedCounter = meterRegistry.counter("elasticsearch.bulk.retried");
+        this.droppedCounter = meterRegistry.counter("elasticsearch.bulk.dropped");
+        meterRegistry.gauge("elasticsearch.bulk.queue.depth", pending, Map::size);
+    }
+
+    public void write(String index, String id, String source) {
+        final DocumentKey key = new DocumentKey(index, id);
+        if (pending.size() >= maxPending && !pending.containsKey(key)) {
+            awaitCapacity();
+        }
+        pending.merge(key, new PendingWrite(index, id, source, sequence.incrementAndGet(), 0, 0L), PendingWrite::replace);
+
+        if (pending.size() >= batchSize && !circuitBreaker.isDegraded() && flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Flushes the full buffer on the calling thread while the cluster is not degraded, and waits for a flush to make
+     * room while nothing can be sent.
+     */
+    private void awaitCapacity() {
+        while (pending.size() >= maxPending) {
+            if (!circuitBreaker.isDegraded()) {
+                flush();
+            }
+            synchronized (capacity) {
+                if (pending.size() < maxPending) {
+                    return;
+                }
+                try {
+                    capacity.wait(retryBackoff);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${elasticsearch.bulk.flush-interval:200}")
+    public void flush() {
+        synchronized (flushLock) {
+            try {
+                while (!pending.isEmpty()) {
+                    if (!flushBatch()) {
+                        return;
+                    }
+                }
+            } finally {
+                if (pending.size() < maxPending) {
+                    synchronized (capacity) {
+                        capacity.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return sequence of the latest write
+     */
+    public long getLastSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * @return true if the cluster has acknowledged every write up to the given sequence
+     */
+    public boolean isWrittenThrough(long sequence) {
+        return isWrittenThrough(pending.values(), sequence) && isWrittenThrough(inFlight, sequence);
+    }
+
+    private static boolean isWrittenThrough(Iterable<PendingWrite> writes, long sequence) {
+        for (PendingWrite write : writes) {
+            if (write.sequence <= sequence) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * Sends one batch of the pending writes that are not backing off, failed items are put back. The batch is
+     * marked in flight before its writes leave the buffer and unmarked once they are acknowledged or put back,
+     * so a write is always seen in one of them.
+     *
+     * @return false if any item of the batch failed, the cluster is degraded or every pending write is backing off,
+     * so the rest is left for the next flush
+     */
+    private boolean flushBatch() {
+        if (pending.isEmpty()) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        if (pending.values().stream().noneMatch(write -> write.retryAt <= now) || !circuitBreaker.allowRequest()) {
+            return false;
+        }
+        final List<PendingWrite> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+
+        Iterator<Map.Entry<DocumentKey, PendingWrite>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && batch.size() < batchSize) {
+            Map.Entry<DocumentKey, PendingWrite> entry = iterator.next();
+            final PendingWrite write = entry.getValue();
+            if (write.retryAt > now) {
+                continue;
+            }
+            inFlight.add(write);
+            if (pending.remove(entry.getKey(), write)) {
+                batch.add(write);
+            } else {
+                inFlight.remove(write);
+            }
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        try {
+            return sendBatch(batch);
+        } finally {
+            batch.forEach(inFlight::remove);
+        }
+    }
+
+    private boolean sendBatch(List<PendingWrite> batch) {
+        final long start = System.nanoTime();
+        final long elapsed;
+        BulkResponse response;
+        try {
+            response = send(batch);
+            elapsed = System.nanoTime() - start;
+        } catch (IOException | RuntimeException ex) {
+            log.error("Problem with getting response from elasticsearch cluster", ex);
+            circuitBreaker.onFailure();
+            batch.forEach(this::retry);
+            return false;
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (!response.hasFailures()) {
+            circuitBreaker.onSuccess(elapsed);
+            writtenCounter.increment(batch.size());
+            return true;
+        }
+
+        int failed = 0;
+        boolean overloaded = false;
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                continue;
+            }
+            failed++;
+            PendingWrite write = batch.get(item.getItemId());
+            final RestStatus status = item.getFailure().getStatus();
+            if (status == RestStatus.BAD_REQUEST) {
+                droppedCounter.increment();
+                log.error("Dropped source {}/{} rejected by elasticsearch cluster: {}", write.index, write.id, item.getFailureMessage());
+            } else {
+                log.warn("Source have not written in elasticsearch cluster: {}", item.getFailureMessage());
+                overloaded |= status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+                retry(write);
+            }
+        }
+        if (overloaded) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess(elapsed);
+        }
+        writtenCounter.increment(batch.size() - failed);
+        return false;
+    }
+
+    private BulkResponse send(List<PendingWrite> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (PendingWrite write : batch) {
+            bytes.write(("{\"index\":{\"_index\":\"" + write.index + "\",\"_id\":\"" + write.id + "\"}}\n").getBytes(StandardCharsets.UTF_8));
+            bytes.write(write.source.getBytes(StandardCharsets.UTF_8));
+            bytes.write('\n');
+        }
+
+        NByteArrayEntity entity;
+        if (compression && bytes.size() >= compressionThreshold) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.size() / 4);
+            try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+                bytes.writeTo(gzip);
+            }
+            entity = new NByteArrayEntity(compressed.toByteArray(), NDJSON);
+            entity.setContentEncoding(GZIP);
+        } else {
+            entity = new NByteArrayEntity(bytes.toByteArray(), NDJSON);
+        }
+
+        Request request = new Request("POST", "/_bulk");
+        request.setEntity(entity);
+        Response response = client.getLowLevelClient().performRequest(request);
+
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, response.getEntity().getContent())) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+
+    /**
+     * Puts a failed write back with its backoff, a newer state written meanwhile is sent instead but keeps
+     * the sequence of the failed one.
+     */
+    private void retry(PendingWrite write) {
+        retriedCounter.increment();
+        final long backoff = Math.min(maxBackoff, retryBackoff << Math.min(write.attempts, 20));
+        PendingWrite failed = new PendingWrite(write.index, write.id, write.source, write.sequence,
+                write.attempts + 1, System.currentTimeMillis() + backoff);
+        pending.merge(new DocumentKey(write.index, write.id), failed, (current, retried) -> new PendingWrite(current.index,
+                current.id, current.source, Math.min(current.sequence, retried.sequence), retried.attempts, retried.retryAt));
+    }
+
+    @EqualsAndHashCode
+    private static final class DocumentKey {
+
+        private final String index;
+        private final String id;
+
+        private DocumentKey(String index, String id) {
+            this.index = index;
+            this.id = id;
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final String index;
+        private final String id;
+        private final String source;
+        private final long sequence;
+        private final int attempts;
+        private final long retryAt;
+
+        private PendingWrite(String index, String id, String source, long sequence, int attempts, long retryAt) {
+            this.index = index;
+            this.id = id;
+            this.source = source;
+            this.sequence = sequence;
+            this.attempts = attempts;
+            this.retryAt = retryAt;
+        }
+
+        /**
+         * Newer state of a buffered write, it keeps the sequence and the backoff of the buffered one.
+         */
+        private static PendingWrite replace(PendingWrite buffered, PendingWrite newer) {
+            return new PendingWrite(newer.index, newer.id, newer.source, buffered.sequence, buffered.attempts, buffered.retryAt);
+        }
+    }
+}
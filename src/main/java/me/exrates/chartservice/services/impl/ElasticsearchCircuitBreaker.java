@@ -0,0 +1,104 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker in front of the elasticsearch cluster.
+ * After {@code failure-threshold} failed or slow requests in a row it opens and requests are rejected without
+ * reaching the cluster for {@code open-duration}. Then one probe request is let through, which closes the breaker
+ * if it succeeds in time and opens it again otherwise. The cluster counts as degraded while the breaker is not
+ * closed, exposed as the {@code elasticsearch.degraded} gauge.
+ */
+@Log4j2
+@Component
+public class ElasticsearchCircuitBreaker {
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openDuration;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long openedAt;
+
+    @Autowired
+    public ElasticsearchCircuitBreaker(MeterRegistry meterRegistry,
+                                       @Value("${elasticsearch.breaker.failure-threshold:5}") int failureThreshold,
+                                       @Value("${elasticsearch.breaker.slow-call-duration:2000}") long slowCallDuration,
+                                       @Value("${elasticsearch.breaker.open-duration:10000}") long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+        this.openDuration = openDuration;
+
+        meterRegistry.gauge("elasticsearch.degraded", state, value -> value.get() == State.CLOSED ? 0 : 1);
+    }
+
+    /**
+     * @return false if the request has to fail fast, a caller allowed through has to report its outcome
+     */
+    public boolean allowRequest() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openDuration && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                    openedAt = System.currentTimeMillis();
+                    log.info("Probing elasticsearch cluster");
+                    return true;
+                }
+                return false;
+            default:
+                if (System.currentTimeMillis() - openedAt >= openDuration) {
+                    openedAt = System.currentTimeMillis();
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    public boolean isDegraded() {
+        return state.get() != State.CLOSED;
+    }
+
+    /**
+     * Counts a request that took longer than {@code slow-call-duration} as failed.
+     */
+    public void onSuccess(long elapsedNanos) {
+        if (elapsedNanos > slowCallNanos) {
+            onFailure();
+            return;
+        }
+        failures.set(0);
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            log.info("Elasticsearch cluster recovered, circuit breaker closed");
+        }
+    }
+
+    public void onFailure() {
+        if (state.get() == State.HALF_OPEN) {
+            open();
+        } else if (failures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            open();
+        }
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        if (state.getAndSet(State.OPEN) != State.OPEN) {
+            log.warn("Elasticsearch cluster degraded, circuit breaker opened for {} ms", openDuration);
+        }
+        failures.set(0);
+    }
+}
@@ -1,62 +1,147 @@
 package me.exrates.chartservice.services.impl;
 
-import com.antkorwin.xsync.XSync;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
 import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException;
+import me.exrates.chartservice.services.AsyncElasticsearchProcessingService;
 import me.exrates.chartservice.services.ElasticsearchProcessingService;
-import org.elasticsearch.action.DocWriteResponse;
+import me.exrates.chartservice.services.IndexManagementService;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.Objects.isNull;
 import static java.util.stream.Collectors.toList;
 
+/**
+ * Candle storage on the elasticsearch cluster. Every request goes through the {@link ElasticsearchCircuitBreaker}:
+ * while the cluster is degraded requests fail fast the same way as failed ones, so callers serve what they have
+ * cached instead of waiting for timeouts.
+ */
 @Log4j2
 @Service
-public class ElasticsearchProcessingServiceImpl implements ElasticsearchProcessingService {
+public class ElasticsearchProcessingServiceImpl implements ElasticsearchProcessingService, AsyncElasticsearchProcessingService {
 
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd_MM_yyyy_HH_mm");
 
     private static final String ALL = "_all";
 
+    private static final String TIME_FIELD = "time_in_millis";
+    private static final String[] SOURCE_FIELDS = {"open_rate", "closed_rate", "high_rate", "low_rate", "volume", "candle_open_time", TIME_FIELD};
+
     private final RestHighLevelClient client;
     private final ObjectMapper mapper;
-    private final XSync<String> xSync;
+    private final ElasticsearchBulkWriter bulkWriter;
+    private final IndexManagementService indexManagementService;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final int pageSize;
+    private final long requestTimeout;
+
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService callbacks;
+
+    private final MeterRegistry meterRegistry;
+    private final Timer existsTimer;
+    private final Timer getTimer;
+    private final Timer mgetTimer;
+    private final Timer searchTimer;
+    private final Timer msearchTimer;
+    private final Timer deleteTimer;
+    private final Timer indexTimer;
+    private final Timer bulkTimer;
+    private final Timer readTimer;
+    private final Timer writeTimer;
 
     @Autowired
     public ElasticsearchProcessingServiceImpl(RestHighLevelClient client,
                                               @Qualifier("jsonMapper") ObjectMapper mapper,
-                                              XSync<String> xSync) {
+                                              ElasticsearchBulkWriter bulkWriter,
+                                              IndexManagementService indexManagementService,
+                                              ElasticsearchCircuitBreaker circuitBreaker,
+                                              MeterRegistry meterRegistry,
+                                              @Value("${elasticsearch.search.page-size:1000}") int pageSize,
+                                              @Value("${elasticsearch.client.request-timeout:5000}") long requestTimeout,
+                                              @Value("${elasticsearch.client.callback-threads:2}") int callbackThreads) {
         this.client = client;
         this.mapper = mapper;
-        this.xSync = xSync;
+        this.bulkWriter = bulkWriter;
+        this.indexManagementService = indexManagementService;
+        this.circuitBreaker = circuitBreaker;
+        this.pageSize = pageSize;
+        this.requestTimeout = requestTimeout;
+        this.callbacks = Executors.newFixedThreadPool(callbackThreads);
+
+        this.meterRegistry = meterRegistry;
+        this.existsTimer = meterRegistry.timer("elasticsearch.requests", "operation", "exists");
+        this.getTimer = meterRegistry.timer("elasticsearch.requests", "operation", "get");
+        this.mgetTimer = meterRegistry.timer("elasticsearch.requests", "operation", "mget");
+        this.searchTimer = meterRegistry.timer("elasticsearch.requests", "operation", "search");
+        this.msearchTimer = meterRegistry.timer("elasticsearch.requests", "operation", "msearch");
+        this.deleteTimer = meterRegistry.timer("elasticsearch.requests", "operation", "delete");
+        this.indexTimer = meterRegistry.timer("elasticsearch.requests", "operation", "index");
+        this.bulkTimer = meterRegistry.timer("elasticsearch.requests", "operation", "bulk");
+        this.readTimer = meterRegistry.timer("candles.serialization", "format", "json", "operation", "read");
+        this.writeTimer = meterRegistry.timer("candles.serialization", "format", "json", "operation", "write");
     }
 
     @Override
@@ -64,13 +149,22 @@ public class ElasticsearchProcessingServiceImpl implements ElasticsearchProcessi
         final String index = prepareIndex(pairName);
         final String id = prepareId(dateTime);
 
+        if (!allowRequest("exists")) {
+            return false;
+        }
+        final long start = System.nanoTime();
         try {
             GetRequest request = new GetRequest(index, id);
 
-            return client.existsSource(request, RequestOptions.DEFAULT);
+            final boolean exists = client.existsSource(request, RequestOptions.DEFAULT);
+            succeeded(start);
+            return exists;
         } catch (IOException ex) {
             log.error("Problem with getting response from elasticsearch cluster", ex);
+            failed("exists");
             return false;
+        } finally {
+            existsTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -79,132 +173,439 @@ public class ElasticsearchProcessingServiceImpl implements ElasticsearchProcessi
         final String index = prepareIndex(pairName);
         final String id = prepareId(dateTime);
 
+        if (!allowRequest("get")) {
+            return null;
+        }
+        GetResponse response;
+        final long start = System.nanoTime();
         try {
             GetRequest request = new GetRequest(index, id);
 
-            GetResponse response = client.get(request, RequestOptions.DEFAULT);
-
-            return mapper.readValue(response.getSourceAsString(), CandleModel.class);
+            response = client.get(request, RequestOptions.DEFAULT);
+            succeeded(start);
         } catch (IOException ex) {
             log.error("Problem with getting response from elasticsearch cluster", ex);
+            failed("get");
             return null;
+        } finally {
+            getTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
+
+        return readSource(response.getSourceAsString());
     }
 
     @Override
     public void insert(CandleModel model, String pairName) {
-        xSync.execute(pairName, () -> {
-            String sourceString = getSourceString(model);
-            if (isNull(sourceString)) {
-                return;
-            }
-
-            final String index = prepareIndex(pairName);
-            final String id = prepareId(model.getCandleOpenTime());
-
-            IndexRequest request = new IndexRequest(index)
-                    .id(id)
-                    .source(sourceString, XContentType.JSON);
-
-            IndexResponse response;
-            try {
-                response = client.index(request, RequestOptions.DEFAULT);
-            } catch (IOException ex) {
-                log.error("Problem with getting response from elasticsearch cluster", ex);
-                return;
-            }
-
-            if (response.getResult() != DocWriteResponse.Result.CREATED) {
-                log.warn("Source have not created in elasticsearch cluster");
-            }
-        });
+        writeSource(model, prepareIndex(pairName));
     }
 
     @Override
     public void update(CandleModel model, String pairName) {
-        xSync.execute(pairName, () -> {
-            String sourceString = getSourceString(model);
-            if (isNull(sourceString)) {
-                return;
-            }
+        writeSource(model, prepareIndex(pairName));
+    }
 
-            final String index = prepareIndex(pairName);
-            final String id = prepareId(model.getCandleOpenTime());
+    @Override
+    public void insert(CandleModel model, String pairName, BackDealInterval interval) {
+        writeSource(model, indexManagementService.getIndex(pairName, interval, model.getCandleOpenTime()));
+    }
 
-            UpdateRequest request = new UpdateRequest(index, id)
-                    .doc(sourceString, XContentType.JSON);
+    @Override
+    public void update(CandleModel model, String pairName, BackDealInterval interval) {
+        writeSource(model, indexManagementService.getIndex(pairName, interval, model.getCandleOpenTime()));
+    }
 
-            UpdateResponse response;
-            try {
-                response = client.update(request, RequestOptions.DEFAULT);
-            } catch (IOException ex) {
-                log.error("Problem with getting response from elasticsearch cluster", ex);
-                return;
-            }
+    private void writeSource(CandleModel model, String index) {
+        String sourceString = getSourceString(model);
+        if (isNull(sourceString)) {
+            return;
+        }
 
-            if (response.getResult() != DocWriteResponse.Result.UPDATED) {
-                log.warn("Source have not updated in elasticsearch cluster");
-            }
-        });
+        bulkWriter.write(index, prepareId(model.getCandleOpenTime()), sourceString);
     }
 
     @Override
     public long deleteAll() {
+        if (!allowRequest("delete")) {
+            return 0L;
+        }
+        final long start = System.nanoTime();
         try {
             DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(ALL)
                     .setQuery(QueryBuilders.matchAllQuery());
 
             BulkByScrollResponse response = client.deleteByQuery(deleteByQueryRequest, RequestOptions.DEFAULT);
+            succeeded(start);
 
             return response.getDeleted();
         } catch (IOException ex) {
             log.warn("Problem with getting response from elasticsearch cluster", ex);
+            failed("delete");
 
             return 0L;
+        } finally {
+            deleteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
     @Override
     public List<CandleModel> getByQuery(LocalDateTime fromDate, LocalDateTime toDate, String pairName) {
-        final String index = prepareIndex(pairName);
+        return streamByRange(fromDate, toDate, prepareIndex(pairName)).collect(toList());
+    }
+
+    @Override
+    public List<CandleModel> getByQuery(LocalDateTime fromDate, LocalDateTime toDate, String pairName, BackDealInterval interval) {
+        return getStreamByQuery(fromDate, toDate, pairName, interval).collect(toList());
+    }
 
+    /**
+     * Reads candles of many pairs by their open times in one {@code _mget} round trip, missing candles
+     * and candles of missing indices are left out.
+     */
+    @Override
+    public Map<String, List<CandleModel>> getMany(Map<String, List<LocalDateTime>> openTimes, BackDealInterval interval) {
+        MultiGetRequest request = new MultiGetRequest();
+        List<String> pairNames = new ArrayList<>();
+        openTimes.forEach((pairName, times) -> times.forEach(time -> {
+            request.add(new MultiGetRequest.Item(indexManagementService.getIndex(pairName, interval, time), prepareId(time))
+                    .fetchSourceContext(new FetchSourceContext(true, SOURCE_FIELDS, null)));
+            pairNames.add(pairName);
+        }));
+        if (pairNames.isEmpty() || !allowRequest("mget")) {
+            return Collections.emptyMap();
+        }
+
+        MultiGetItemResponse[] items;
+        final long start = System.nanoTime();
         try {
-            SearchRequest request = new SearchRequest(index)
-                    .source(new SearchSourceBuilder()
-                            .query(QueryBuilders.rangeQuery("time_in_millis")
-                                    .gte(Timestamp.valueOf(fromDate).getTime())
-                                    .lt(Timestamp.valueOf(toDate).getTime())));
+            items = client.mget(request, RequestOptions.DEFAULT).getResponses();
+            succeeded(start);
+        } catch (IOException ex) {
+            log.warn("Problem with getting response from elasticsearch cluster", ex);
+            failed("mget");
+            return Collections.emptyMap();
+        } finally {
+            mgetTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
 
-            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+        Map<String, List<CandleModel>> result = new HashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].isFailed() || !items[i].getResponse().isExists()) {
+                continue;
+            }
+            CandleModel model = readSource(items[i].getResponse().getSourceAsString());
+            if (!isNull(model)) {
+                result.computeIfAbsent(pairNames.get(i), pairName -> new ArrayList<>()).add(model);
+            }
+        }
+        return result;
+    }
 
-            return getSearchResult(response);
+    /**
+     * Reads a time range of many pairs in one {@code _msearch} round trip, ranges longer than a page are
+     * completed pair by pair with the paged reader. Pairs whose range could not be read completely are left out.
+     */
+    @Override
+    public Map<String, List<CandleModel>> getByQueryMany(Collection<String> pairNames, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        if (pairNames.isEmpty() || !allowRequest("msearch")) {
+            return Collections.emptyMap();
+        }
+        final long fromMillis = Timestamp.valueOf(fromDate).getTime();
+        final long toMillis = Timestamp.valueOf(toDate).getTime();
+
+        MultiSearchRequest request = new MultiSearchRequest();
+        List<String> pairs = new ArrayList<>(pairNames);
+        pairs.forEach(pairName -> request.add(buildRangeSearch(indexManagementService.getIndices(pairName, interval, fromDate, toDate), fromMillis, toMillis, null)));
+
+        MultiSearchResponse.Item[] items;
+        final long start = System.nanoTime();
+        try {
+            items = client.msearch(request, RequestOptions.DEFAULT).getResponses();
+            succeeded(start);
         } catch (IOException ex) {
             log.warn("Problem with getting response from elasticsearch cluster", ex);
+            failed("msearch");
+            return Collections.emptyMap();
+        } finally {
+            msearchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
 
-            return Collections.emptyList();
+        Map<String, List<CandleModel>> result = new HashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            final String pairName = pairs.get(i);
+            if (items[i].isFailure()) {
+                log.warn("Problem with searching candles of pair {}", pairName, items[i].getFailure());
+                continue;
+            }
+            if (!isComplete(items[i].getResponse())) {
+                log.warn("Skipped partial search result of pair {}", pairName);
+                continue;
+            }
+            SearchHit[] hits = items[i].getResponse().getHits().getHits();
+            if (hits.length < pageSize) {
+                result.put(pairName, getSearchResult(hits));
+                continue;
+            }
+            try {
+                result.put(pairName, getByQuery(fromDate, toDate, pairName, interval));
+            } catch (ElasticsearchUnavailableException ex) {
+                log.warn("Problem with reading candles of pair {}", pairName, ex);
+            }
         }
+        return result;
+    }
+
+    @Override
+    public Stream<CandleModel> getStreamByQuery(LocalDateTime fromDate, LocalDateTime toDate, String pairName, BackDealInterval interval) {
+        return streamByRange(fromDate, toDate, indexManagementService.getIndices(pairName, interval, fromDate, toDate));
     }
 
-    private List<CandleModel> getSearchResult(SearchResponse response) {
-        return Arrays.stream(response.getHits().getHits())
-                .map(hit -> {
-                    try {
-                        return mapper.readValue(hit.getSourceAsString(), CandleModel.class);
-                    } catch (IOException ex) {
-                        log.warn("Problem with read model object from string", ex);
-                        return null;
+    private Stream<CandleModel> streamByRange(LocalDateTime fromDate, LocalDateTime toDate, String... indices) {
+        RangeIterator iterator = new RangeIterator(indices, Timestamp.valueOf(fromDate).getTime(), Timestamp.valueOf(toDate).getTime());
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public CompletableFuture<List<CandleModel>> getByQueryAsync(LocalDateTime fromDate, LocalDateTime toDate, String pairName, BackDealInterval interval) {
+        final String[] indices = indexManagementService.getIndices(pairName, interval, fromDate, toDate);
+
+        CompletableFuture<List<CandleModel>> result = new CompletableFuture<>();
+        searchPagesAsync(indices, Timestamp.valueOf(fromDate).getTime(), Timestamp.valueOf(toDate).getTime(), null, new ArrayList<>())
+                .whenComplete((models, ex) -> {
+                    if (isNull(ex)) {
+                        result.complete(models);
+                    } else {
+                        log.warn("Problem with getting response from elasticsearch cluster", ex);
+                        result.completeExceptionally(unavailable(ex));
                     }
-                })
+                });
+
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> indexAsync(CandleModel model, String pairName, BackDealInterval interval) {
+        String sourceString = getSourceString(model);
+        if (isNull(sourceString)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        IndexRequest request = new IndexRequest(indexManagementService.getIndex(pairName, interval, model.getCandleOpenTime()))
+                .id(prepareId(model.getCandleOpenTime()))
+                .source(sourceString, XContentType.JSON)
+                .timeout(TimeValue.timeValueMillis(requestTimeout));
+
+        CompletableFuture<IndexResponse> future = new CompletableFuture<>();
+        if (allowRequest(future, "index")) {
+            client.indexAsync(request, RequestOptions.DEFAULT, completing(future));
+        }
+
+        return withTimeout(future, indexTimer, "index")
+                .thenApplyAsync(response -> true, callbacks)
+                .exceptionally(ex -> {
+                    log.warn("Problem with indexing candle to elasticsearch cluster", ex);
+                    return false;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> bulkAsync(List<CandleModel> models, String pairName, BackDealInterval interval) {
+        BulkRequest request = new BulkRequest()
+                .timeout(TimeValue.timeValueMillis(requestTimeout));
+        for (CandleModel model : models) {
+            String sourceString = getSourceString(model);
+            if (!isNull(sourceString)) {
+                request.add(new IndexRequest(indexManagementService.getIndex(pairName, interval, model.getCandleOpenTime()))
+                        .id(prepareId(model.getCandleOpenTime()))
+                        .source(sourceString, XContentType.JSON));
+            }
+        }
+        if (request.numberOfActions() == 0) {
+            return CompletableFuture.completedFuture(models.isEmpty());
+        }
+
+        CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+        if (allowRequest(future, "bulk")) {
+            client.bulkAsync(request, RequestOptions.DEFAULT, completing(future));
+        }
+
+        return withTimeout(future, bulkTimer, "bulk")
+                .thenApplyAsync(response -> {
+                    if (response.hasFailures()) {
+                        log.warn("Bulk of {} candles partially failed: {}", request.numberOfActions(), response.buildFailureMessage());
+                        return false;
+                    }
+                    return true;
+                }, callbacks)
+                .exceptionally(ex -> {
+                    log.warn("Problem with bulk indexing to elasticsearch cluster", ex);
+                    return false;
+                });
+    }
+
+    /**
+     * Fetches pages one after another, each next page is requested from the callback of the previous one,
+     * hits are decoded on the callback threads, neither on the io reactor threads nor on the common pool.
+     */
+    private CompletableFuture<List<CandleModel>> searchPagesAsync(String[] indices, long fromMillis, long toMillis,
+                                                                  Object[] searchAfter, List<CandleModel> collected) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        if (allowRequest(future, "search")) {
+            client.searchAsync(buildRangeSearch(indices, fromMillis, toMillis, searchAfter), RequestOptions.DEFAULT, completingSearch(future));
+        }
+
+        return withTimeout(future, searchTimer, "search")
+                .thenComposeAsync(response -> {
+                    SearchHit[] hits = response.getHits().getHits();
+                    collected.addAll(getSearchResult(hits));
+
+                    if (hits.length < pageSize) {
+                        return CompletableFuture.completedFuture(collected);
+                    }
+                    return searchPagesAsync(indices, fromMillis, toMillis, hits[hits.length - 1].getSortValues(), collected);
+                }, callbacks);
+    }
+
+    private SearchRequest buildRangeSearch(String[] indices, long fromMillis, long toMillis, Object[] searchAfter) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.rangeQuery(TIME_FIELD)
+                        .gte(fromMillis)
+                        .lt(toMillis))
+                .size(pageSize)
+                .sort(TIME_FIELD, SortOrder.ASC)
+                .fetchSource(SOURCE_FIELDS, null)
+                .timeout(TimeValue.timeValueMillis(requestTimeout));
+        if (!isNull(searchAfter)) {
+            source.searchAfter(searchAfter);
+        }
+
+        return new SearchRequest(indices)
+                .indicesOptions(IndicesOptions.lenientExpandOpen())
+                .source(source);
+    }
+
+    /**
+     * Fails the future when the cluster does not answer in time and records the request under the timer,
+     * unless the circuit breaker has rejected it already. The async calls of the 7.2 client hand out nothing to
+     * cancel, so every request carries the same timeout for the cluster, which ends the abandoned request there.
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, Timer timer, String operation) {
+        if (future.isCompletedExceptionally()) {
+            return future;
+        }
+        final long start = System.nanoTime();
+        ScheduledFuture<?> timeout = timeouts.schedule(
+                () -> future.completeExceptionally(new TimeoutException("No response from elasticsearch cluster in " + requestTimeout + " ms")),
+                requestTimeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((response, ex) -> {
+            timeout.cancel(false);
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (isNull(ex)) {
+                succeeded(start);
+            } else {
+                failed(operation);
+            }
+        });
+
+        return future;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !circuitBreaker.isDegraded();
+    }
+
+    private boolean allowRequest(String operation) {
+        if (circuitBreaker.allowRequest()) {
+            return true;
+        }
+        meterRegistry.counter("elasticsearch.requests.rejected", "operation", operation).increment();
+        return false;
+    }
+
+    private boolean allowRequest(CompletableFuture<?> future, String operation) {
+        if (allowRequest(operation)) {
+            return true;
+        }
+        future.completeExceptionally(new RejectedExecutionException("Elasticsearch cluster is degraded"));
+        return false;
+    }
+
+    private void succeeded(long start) {
+        circuitBreaker.onSuccess(System.nanoTime() - start);
+    }
+
+    private void failed(String operation) {
+        circuitBreaker.onFailure();
+        meterRegistry.counter("elasticsearch.requests.failed", "operation", operation).increment();
+    }
+
+    private static <T> ActionListener<T> completing(CompletableFuture<T> future) {
+        return ActionListener.wrap(future::complete, future::completeExceptionally);
+    }
+
+    private static ActionListener<SearchResponse> completingSearch(CompletableFuture<SearchResponse> future) {
+        return ActionListener.wrap(response -> {
+            if (isComplete(response)) {
+                future.complete(response);
+            } else {
+                future.completeExceptionally(new ElasticsearchUnavailableException("Elasticsearch cluster returned a partial search result"));
+            }
+        }, future::completeExceptionally);
+    }
+
+    /**
+     * A search that timed out or missed shards returns whatever the answering shards found, which must not be
+     * taken for the full range. Missing indices are not failures, an index is created by the first candle of its
+     * period, so a period without one has no candles.
+     */
+    private static boolean isComplete(SearchResponse response) {
+        return !response.isTimedOut()
+                && response.getFailedShards() == 0
+                && response.getSuccessfulShards() == response.getTotalShards();
+    }
+
+    private static ElasticsearchUnavailableException unavailable(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && !isNull(ex.getCause()) ? ex.getCause() : ex;
+        if (cause instanceof ElasticsearchUnavailableException) {
+            return (ElasticsearchUnavailableException) cause;
+        }
+        return new ElasticsearchUnavailableException("Problem with getting response from elasticsearch cluster", cause);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        timeouts.shutdownNow();
+        callbacks.shutdownNow();
+    }
+
+    private List<CandleModel> getSearchResult(SearchHit[] hits) {
+        return Arrays.stream(hits)
+                .map(hit -> readSource(hit.getSourceAsString()))
                 .filter(Objects::nonNull)
                 .collect(toList());
     }
 
+    private CandleModel readSource(String source) {
+        final long start = System.nanoTime();
+        try {
+            return mapper.readValue(source, CandleModel.class);
+        } catch (IOException ex) {
+            log.warn("Problem with read model object from string", ex);
+            return null;
+        } finally {
+            readTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
     private String getSourceString(final CandleModel model) {
+        final long start = System.nanoTime();
         try {
             return mapper.writeValueAsString(model);
         } catch (JsonProcessingException ex) {
             log.error("Problem with writing model object to string", ex);
             return null;
+        } finally {
+            writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -215,4 +616,73 @@ public class ElasticsearchProcessingServiceImpl implements ElasticsearchProcessi
     private String prepareId(LocalDateTime dateTime) {
         return dateTime.format(FORMATTER);
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads candles of a time range page by page, sorted by time and continued with search_after,
+     * so only one page is held in memory at a time. A page that cannot be read fails the iteration
+     * rather than ending it, so a range is never served truncated.
+     */
+    private final class RangeIterator implements Iterator<CandleModel> {
+
+        private final String[] indices;
+        private final long fromMillis;
+        private final long toMillis;
+
+        private Iterator<CandleModel> page = Collections.emptyIterator();
+        private Object[] searchAfter;
+        private boolean last;
+
+        private RangeIterator(String[] indices, long fromMillis, long toMillis) {
+            this.indices = indices;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && !last) {
+                fetchPage();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public CandleModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        private void fetchPage() {
+            if (!allowRequest("search")) {
+                throw new ElasticsearchUnavailableException("Elasticsearch cluster is degraded, range read aborted");
+            }
+            SearchRequest request = buildRangeSearch(indices, fromMillis, toMillis, searchAfter);
+
+            SearchHit[] hits;
+            final long start = System.nanoTime();
+            try {
+                SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+                if (!isComplete(response)) {
+                    failed("search");
+                    throw new ElasticsearchUnavailableException("Elasticsearch cluster returned a partial page of candles");
+                }
+                hits = response.getHits().getHits();
+                succeeded(start);
+            } catch (IOException ex) {
+                log.warn("Problem with getting response from elasticsearch cluster", ex);
+                failed("search");
+                throw new ElasticsearchUnavailableException("Problem with reading a page of candles", ex);
+            } finally {
+                searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+
+            last = hits.length < pageSize;
+            if (hits.length > 0) {
+                searchAfter = hits[hits.length - 1].getSortValues();
+            }
+            page = getSearchResult(hits).iterator();
+        }
+    }
+}
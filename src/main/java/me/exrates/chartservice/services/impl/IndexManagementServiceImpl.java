@@ -0,0 +1,128 @@
+package me.exrates.chartservice.services.impl;
+
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.services.IndexManagementService;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.PutIndexTemplateRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Candles are stored in one index per pair, interval and time bucket, named {@code <prefix>-<pair>-<interval>-<bucket>}.
+ * Minute and hour candles are bucketed by month, coarser ones by year. All candle indices share one template with
+ * a tight mapping: rates and volume are kept in doc values only, the time is the only indexed field.
+ */
+@Log4j2
+@Service
+public class IndexManagementServiceImpl implements IndexManagementService {
+
+    private static final DateTimeFormatter MONTH_BUCKET = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final DateTimeFormatter YEAR_BUCKET = DateTimeFormatter.ofPattern("yyyy");
+
+    private static final String MAPPING_LOCATION = "elasticsearch/candles-mapping.json";
+
+    private final RestHighLevelClient client;
+    private final String prefix;
+    private final int shards;
+    private final int replicas;
+    private final String refreshInterval;
+    private final int maxBuckets;
+
+    @Autowired
+    public IndexManagementServiceImpl(RestHighLevelClient client,
+                                      @Value("${elasticsearch.index.prefix:candles}") String prefix,
+                                      @Value("${elasticsearch.index.shards:1}") int shards,
+                                      @Value("${elasticsearch.index.replicas:1}") int replicas,
+                                      @Value("${elasticsearch.index.refresh-interval:1s}") String refreshInterval,
+                                      @Value("${elasticsearch.index.max-buckets:24}") int maxBuckets) {
+        this.client = client;
+        this.prefix = prefix;
+        this.shards = shards;
+        this.replicas = replicas;
+        this.refreshInterval = refreshInterval;
+        this.maxBuckets = maxBuckets;
+    }
+
+    @PostConstruct
+    @Override
+    public void installTemplate() {
+        try (InputStream mapping = new ClassPathResource(MAPPING_LOCATION).getInputStream()) {
+            PutIndexTemplateRequest request = new PutIndexTemplateRequest(prefix)
+                    .patterns(Collections.singletonList(prefix + "-*"))
+                    .settings(Settings.builder()
+                            .put("index.number_of_shards", shards)
+                            .put("index.number_of_replicas", replicas)
+                            .put("index.refresh_interval", refreshInterval)
+                            .put("index.codec", "best_compression"))
+                    .mapping(StreamUtils.copyToString(mapping, StandardCharsets.UTF_8), XContentType.JSON);
+
+            if (!client.indices().putTemplate(request, RequestOptions.DEFAULT).isAcknowledged()) {
+                log.warn("Template {} have not acknowledged by elasticsearch cluster", prefix);
+            }
+        } catch (IOException ex) {
+            log.error("Problem with installing template to elasticsearch cluster", ex);
+        }
+    }
+
+    @Override
+    public String getIndex(String pairName, BackDealInterval interval, LocalDateTime candleOpenTime) {
+        return getIndexPrefix(pairName, interval) + (isMonthly(interval) ? MONTH_BUCKET : YEAR_BUCKET).format(candleOpenTime);
+    }
+
+    /**
+     * @return indices of all buckets overlapping [fromDate, toDate), or a wildcard over all buckets of the pair
+     * and interval if there are more than the configured maximum
+     */
+    @Override
+    public String[] getIndices(String pairName, BackDealInterval interval, LocalDateTime fromDate, LocalDateTime toDate) {
+        final boolean monthly = isMonthly(interval);
+        final ChronoUnit unit = monthly ? ChronoUnit.MONTHS : ChronoUnit.YEARS;
+
+        LocalDateTime bucket = fromDate.toLocalDate().withDayOfMonth(1).atStartOfDay();
+        if (!monthly) {
+            bucket = bucket.withMonth(1);
+        }
+
+        List<String> indices = new ArrayList<>();
+        for (; bucket.isBefore(toDate); bucket = bucket.plus(1, unit)) {
+            if (indices.size() == maxBuckets) {
+                return new String[]{getIndexPrefix(pairName, interval) + "*"};
+            }
+            indices.add(getIndex(pairName, interval, bucket));
+        }
+        return indices.toArray(new String[0]);
+    }
+
+    private String getIndexPrefix(String pairName, BackDealInterval interval) {
+        return prefix + "-" + pairName.replace("/", "_").toLowerCase()
+                + "-" + interval.getKey() + "-";
+    }
+
+    private static boolean isMonthly(BackDealInterval interval) {
+        switch (interval.getIntervalType()) {
+            case MINUTE:
+            case HOUR:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
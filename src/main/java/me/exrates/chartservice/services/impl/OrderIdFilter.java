@@ -0,0 +1,124 @@
+package me.exrates.chartservice.services.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Order ids seen by one pair, a rolling bitmap exact for the {@code size} ids up to the highest one seen.
+ * A trade may carry the id of an order placed long before, so ids arriving below the window are kept apart in a
+ * set of the {@code size / 16} most recent ones. An id below the window that is not in that set is taken for a
+ * new one: a replay is missed once it falls behind both, but a trade is never dropped for an old id.
+ */
+final class OrderIdFilter {
+
+    private final long[] words;
+    private final int size;
+    private final int olderSize;
+    private final Set<Integer> older = new LinkedHashSet<>();
+    private long highest = Long.MIN_VALUE;
+
+    /**
+     * @param size number of ids in the window, rounded up to a multiple of 64
+     */
+    OrderIdFilter(int size) {
+        this.words = new long[(size + 63) >>> 6];
+        this.size = words.length << 6;
+        this.olderSize = Math.max(64, this.size >>> 4);
+    }
+
+    boolean contains(int orderId) {
+        if (orderId > highest) {
+            return false;
+        }
+        if (orderId <= highest - size) {
+            return older.contains(orderId);
+        }
+        final int bit = index(orderId);
+
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @return false if the id was seen already
+     */
+    boolean add(int orderId) {
+        if (orderId > highest) {
+            advance(orderId);
+        } else if (orderId <= highest - size) {
+            return addOlder(orderId);
+        }
+        final int bit = index(orderId);
+        final long mask = 1L << bit;
+        if ((words[bit >>> 6] & mask) != 0) {
+            return false;
+        }
+        words[bit >>> 6] |= mask;
+        return true;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(words.length);
+        out.writeLong(highest);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+        out.writeInt(older.size());
+        for (int orderId : older) {
+            out.writeInt(orderId);
+        }
+    }
+
+    static OrderIdFilter readFrom(DataInput in) throws IOException {
+        OrderIdFilter filter = new OrderIdFilter(in.readInt() << 6);
+        filter.highest = in.readLong();
+        for (int i = 0; i < filter.words.length; i++) {
+            filter.words[i] = in.readLong();
+        }
+        final int olderCount = in.readInt();
+        for (int i = 0; i < olderCount; i++) {
+            filter.addOlder(in.readInt());
+        }
+        return filter;
+    }
+
+    /**
+     * Moves the window up to the given id, clearing the bits of the ids it leaves behind.
+     */
+    private void advance(long orderId) {
+        if (highest == Long.MIN_VALUE || orderId - highest >= size) {
+            Arrays.fill(words, 0L);
+        } else {
+            for (long id = highest + 1; id <= orderId; id++) {
+                final int bit = index(id);
+                if ((bit & 63) == 0 && orderId - id >= 63) {
+                    words[bit >>> 6] = 0L;
+                    id += 63;
+                } else {
+                    words[bit >>> 6] &= ~(1L << bit);
+                }
+            }
+        }
+        highest = orderId;
+    }
+
+    private boolean addOlder(int orderId) {
+        if (!older.add(orderId)) {
+            return false;
+        }
+        if (older.size() > olderSize) {
+            Iterator<Integer> eldest = older.iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    private int index(long orderId) {
+        return (int) Math.floorMod(orderId, (long) size);
+    }
+}
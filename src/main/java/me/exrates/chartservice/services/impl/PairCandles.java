@@ -0,0 +1,620 @@
+package me.exrates.chartservice.services.impl;
+
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.FixedPointCandle;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.model.serializers.CandleCodec;
+import me.exrates.chartservice.utils.TimeUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Open candles of one pair in fixed point form, confined to the worker of the pair.
+ * Trades are folded into the base interval only. Every coarser interval is rolled up from the closed candles of
+ * its source interval, so its accumulated part changes only when a source candle closes, and its live state is
+ * the accumulated part merged with the live state of the source.
+ * <p>
+ * Trades replayed by the broker are skipped by their order id, see {@link OrderIdFilter}. A trade older than the
+ * open base candle but within the late window is folded into the closed candles of its period, which are kept
+ * for that window, and only the closed candles it changed are emitted again. To place such a trade, every candle
+ * tracks its first and last trade time, coarser candles the open times of their first and last base candles.
+ * <p>
+ * Candles whose period ended without a later trade are closed by {@link #roll(long)}, so they are written and
+ * cached as closed ones. A trade older than the period rolled to counts as a late one.
+ */
+@Log4j2
+final class PairCandles {
+
+    enum Outcome {
+        APPLIED, REVISED, DUPLICATE, TOO_LATE, REJECTED
+    }
+
+    private static final int SKIP = 0;
+    private static final int OPEN = 1;
+    private static final int CLOSED = 2;
+    private static final int CREATED = 3;
+
+    private final Layer[] layers;
+    private final List<PendingCandle> pending = new ArrayList<>();
+    private final long lateWindow;
+    private OrderIdFilter seen;
+    private int scale = FixedPointCandle.DEFAULT_SCALE;
+    private boolean dirty;
+    private long watermark = Long.MIN_VALUE;
+    private long rolledTo = Long.MIN_VALUE;
+    private long rolledUntil = Long.MIN_VALUE;
+
+    PairCandles(List<BackDealInterval> intervals, Map<BackDealInterval, BackDealInterval> sources) {
+        this(intervals, sources, 0L, 0);
+    }
+
+    /**
+     * @param intervals   supported intervals, the base interval first and every interval after its source
+     * @param sources     source interval of every interval except the base one
+     * @param lateWindow  millis behind the latest trade a late trade is still folded in, 0 to skip late trades
+     * @param dedupWindow number of order ids remembered to skip replayed trades, 0 to apply every trade
+     */
+    PairCandles(List<BackDealInterval> intervals, Map<BackDealInterval, BackDealInterval> sources, long lateWindow, int dedupWindow) {
+        this.lateWindow = lateWindow;
+        this.seen = dedupWindow > 0 ? new OrderIdFilter(dedupWindow) : null;
+
+        layers = new Layer[intervals.size()];
+        for (int i = 0; i < layers.length; i++) {
+            BackDealInterval source = sources.get(intervals.get(i));
+            int sourceIndex = isNull(source) ? -1 : intervals.indexOf(source);
+            if ((i == 0) != (sourceIndex < 0) || sourceIndex >= i) {
+                throw new IllegalArgumentException("Wrong rollup source for interval " + intervals.get(i).getInterval());
+            }
+            layers[i] = new Layer(intervals.get(i), sourceIndex);
+        }
+    }
+
+    /**
+     * Applies the trade with rate and amount as mantissas of the pair scale. The scale of all candles of the pair
+     * is raised when the values have more digits and lowered when they do not fit, a value is rounded only when
+     * no scale keeps all its digits within long mantissas. Trades without order id are never skipped
+     * as duplicates.
+     */
+    Outcome apply(TradeDataDto dto) {
+        if (!isNull(seen) && dto.getOrderId() > 0 && !seen.add(dto.getOrderId())) {
+            log.debug("Skipped duplicate trade {}", dto.getOrderId());
+            return Outcome.DUPLICATE;
+        }
+        final long tradeTime = Timestamp.valueOf(dto.getTradeDate()).getTime();
+        final int fitScale = FixedPointCandle.fitScale(dto.getAmountBase(), FixedPointCandle.fitScale(dto.getExrate(), scale));
+
+        for (int newScale = fitScale; newScale >= 0; newScale--) {
+            try {
+                final long rate = FixedPointCandle.toMantissa(dto.getExrate(), newScale);
+                final long amount = FixedPointCandle.toMantissa(dto.getAmountBase(), newScale);
+                if (newScale != scale) {
+                    rescale(newScale);
+                }
+
+                checkVolumes(amount);
+                return apply(dto, tradeTime, rate, amount);
+            } catch (ArithmeticException ex) {
+                log.debug("Values of trade {} do not fit into scale {}", dto.getOrderId(), newScale);
+            }
+        }
+        log.error("Skipped trade with values out of range: {}", dto);
+        return Outcome.REJECTED;
+    }
+
+    boolean isDuplicate(TradeDataDto dto) {
+        return !isNull(seen) && dto.getOrderId() > 0 && seen.contains(dto.getOrderId());
+    }
+
+    CandleModel getOpenCandle(int index) {
+        FixedPointCandle view = view(index);
+
+        return isNull(view) ? null : view.toCandleModel();
+    }
+
+    /**
+     * Closes the candles whose period ended before the given time, the base candle is opened again by the next trade.
+     */
+    void roll(long now) {
+        final Layer base = layers[0];
+        if (base.opened) {
+            if (now < base.closeTime) {
+                return;
+            }
+            close(0);
+        } else if (rolledTo == Long.MIN_VALUE || now < rolledUntil) {
+            return;
+        }
+        rolledTo = align(base.interval, now);
+        rolledUntil = nextTime(base.interval, rolledTo);
+        closeExpired(rolledTo);
+    }
+
+    /**
+     * @return candles closed since the last call and, if any trade was applied meanwhile, the live state
+     * of every interval
+     */
+    List<PendingCandle> drain() {
+        List<PendingCandle> result = new ArrayList<>(pending);
+        pending.clear();
+
+        if (dirty) {
+            for (int i = 0; i < layers.length; i++) {
+                FixedPointCandle view = view(i);
+                if (!isNull(view)) {
+                    Layer layer = layers[i];
+                    result.add(new PendingCandle(layer.interval, view.toCandleModel(), view.getOpenTime() == layer.persistedOpenTime, false));
+                    layer.persistedOpenTime = view.getOpenTime();
+                }
+            }
+            dirty = false;
+        }
+        return result;
+    }
+
+    /**
+     * @return candles closed since the last call, the live state is left to {@link #drain()}
+     */
+    List<PendingCandle> drainClosed() {
+        List<PendingCandle> result = new ArrayList<>(pending);
+        pending.clear();
+
+        return result;
+    }
+
+    /**
+     * Writes the open candles and the candles closed since the last drain, to be read back by {@link #readFrom}
+     * into candles of the same intervals.
+     */
+    void writeTo(DataOutput out, CandleCodec codec) throws IOException {
+        out.writeByte(scale);
+        out.writeShort(layers.length);
+        for (Layer layer : layers) {
+            out.writeBoolean(layer.opened);
+            out.writeLong(layer.persistedOpenTime);
+            if (layer.opened) {
+                layer.candle.writeTo(out);
+                out.writeLong(layer.first);
+                out.writeLong(layer.last);
+            }
+            out.writeShort(layer.closed.size());
+            for (ClosedCandle closed : layer.closed) {
+                closed.candle.writeTo(out);
+                out.writeLong(closed.closeTime);
+                out.writeLong(closed.first);
+                out.writeLong(closed.last);
+            }
+        }
+
+        out.writeInt(pending.size());
+        for (PendingCandle candle : pending) {
+            byte[] model = codec.encode(candle.model);
+            out.writeShort(indexOf(candle.interval));
+            out.writeBoolean(candle.persisted);
+            out.writeBoolean(candle.closed);
+            out.writeInt(model.length);
+            out.write(model);
+        }
+
+        out.writeLong(watermark);
+        out.writeLong(rolledTo);
+        out.writeBoolean(!isNull(seen));
+        if (!isNull(seen)) {
+            seen.writeTo(out);
+        }
+    }
+
+    /**
+     * Replaces the state with one written by {@link #writeTo}, all restored candles are flushed again.
+     */
+    void readFrom(DataInput in, CandleCodec codec) throws IOException {
+        final int newScale = in.readByte();
+        if (in.readShort() != layers.length) {
+            throw new IOException("Candles state was written for other intervals");
+        }
+        for (Layer layer : layers) {
+            final boolean opened = in.readBoolean();
+            layer.persistedOpenTime = in.readLong();
+            if (opened) {
+                layer.restore(FixedPointCandle.readFrom(in));
+                layer.first = in.readLong();
+                layer.last = in.readLong();
+            } else {
+                layer.opened = false;
+            }
+            layer.closed.clear();
+            final int closedCount = in.readShort();
+            for (int i = 0; i < closedCount; i++) {
+                layer.closed.add(new ClosedCandle(FixedPointCandle.readFrom(in), in.readLong(), in.readLong(), in.readLong()));
+            }
+        }
+
+        pending.clear();
+        final int pendingCount = in.readInt();
+        for (int i = 0; i < pendingCount; i++) {
+            final BackDealInterval interval = layers[in.readShort()].interval;
+            final boolean persisted = in.readBoolean();
+            final boolean closed = in.readBoolean();
+            byte[] model = new byte[in.readInt()];
+            in.readFully(model);
+            pending.add(new PendingCandle(interval, codec.decodeOne(model), persisted, closed));
+        }
+
+        watermark = in.readLong();
+        rolledTo = in.readLong();
+        rolledUntil = Long.MIN_VALUE;
+        seen = in.readBoolean() ? OrderIdFilter.readFrom(in) : null;
+
+        scale = newScale;
+        dirty = true;
+    }
+
+    private int indexOf(BackDealInterval interval) {
+        for (int i = 0; i < layers.length; i++) {
+            if (layers[i].interval.equals(interval)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported interval " + interval.getInterval());
+    }
+
+    /**
+     * Volumes of coarser intervals are sums of finer ones, so the sum of all of them bounds every volume.
+     */
+    private void checkVolumes(long amount) {
+        long total = amount;
+        for (Layer layer : layers) {
+            if (layer.opened) {
+                total = Math.addExact(total, layer.candle.getVolume());
+            }
+        }
+    }
+
+    private Outcome apply(TradeDataDto dto, long tradeTime, long rate, long amount) {
+        final Layer base = layers[0];
+
+        if ((base.opened || rolledTo != Long.MIN_VALUE) && tradeTime < getCurrentOpenTime()) {
+            if (tradeTime < watermark - lateWindow || lateWindow <= 0) {
+                log.debug("Skipped late trade {} for closed {} candle", dto.getOrderId(), base.interval.getInterval());
+                return Outcome.TOO_LATE;
+            }
+            revise(tradeTime, rate, amount);
+            return Outcome.REVISED;
+        }
+        if (!base.opened || tradeTime >= base.closeTime) {
+            final long openTime = align(base.interval, tradeTime);
+            if (base.opened) {
+                close(0);
+            }
+            closeExpired(openTime);
+            base.open(openTime, scale).open(openTime, rate, amount);
+            base.first = tradeTime;
+            base.last = tradeTime;
+        } else {
+            base.candle.apply(rate, amount, tradeTime < base.first, tradeTime >= base.last);
+            base.first = Math.min(base.first, tradeTime);
+            base.last = Math.max(base.last, tradeTime);
+        }
+        if (tradeTime > watermark) {
+            watermark = tradeTime;
+            expire();
+        }
+        dirty = true;
+        return Outcome.APPLIED;
+    }
+
+    /**
+     * Folds a late trade into the candle of its period on every interval whose candle already contains the closed
+     * base candle of the trade: a kept closed candle, a new closed candle if the period had no trades, or the
+     * accumulated part of the open candle. Intervals rolled up from an open candle get the trade through its live
+     * state. All candles are checked for overflow before any of them is changed.
+     */
+    private void revise(long tradeTime, long rate, long amount) {
+        final long baseOpenTime = align(layers[0].interval, tradeTime);
+        final long currentOpenTime = getCurrentOpenTime();
+
+        final int[] kinds = new int[layers.length];
+        final ClosedCandle[] targets = new ClosedCandle[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            final Layer layer = layers[i];
+            if (i > 0 && kinds[layer.source] != CLOSED && kinds[layer.source] != CREATED) {
+                continue;
+            }
+            final long periodOpenTime = align(layer.interval, baseOpenTime);
+            if (i > 0 && periodOpenTime == align(layer.interval, currentOpenTime)) {
+                if (!layer.opened || layer.candle.getOpenTime() == periodOpenTime) {
+                    kinds[i] = OPEN;
+                }
+                continue;
+            }
+            targets[i] = layer.find(periodOpenTime);
+            kinds[i] = isNull(targets[i]) ? CREATED : CLOSED;
+        }
+        for (int i = 0; i < layers.length; i++) {
+            if (kinds[i] == CLOSED) {
+                Math.addExact(targets[i].candle.getVolume(), amount);
+            }
+        }
+
+        final ClosedCandle base = targets[0];
+        final boolean first = isNull(base) || tradeTime < base.first;
+        final boolean last = isNull(base) || tradeTime >= base.last;
+        for (int i = 0; i < layers.length; i++) {
+            final Layer layer = layers[i];
+            final long time = i == 0 ? tradeTime : baseOpenTime;
+            switch (kinds[i]) {
+                case OPEN:
+                    if (layer.opened) {
+                        layer.candle.apply(rate, amount, isFirst(layer.first, baseOpenTime, first), isLast(layer.last, baseOpenTime, last));
+                        layer.first = Math.min(layer.first, baseOpenTime);
+                        layer.last = Math.max(layer.last, baseOpenTime);
+                    } else {
+                        final long openTime = align(layer.interval, baseOpenTime);
+                        layer.open(openTime, scale).open(openTime, rate, amount);
+                        layer.first = baseOpenTime;
+                        layer.last = baseOpenTime;
+                    }
+                    break;
+                case CLOSED:
+                    final ClosedCandle target = targets[i];
+                    if (i == 0) {
+                        target.candle.apply(rate, amount, first, last);
+                    } else {
+                        target.candle.apply(rate, amount, isFirst(target.first, baseOpenTime, first), isLast(target.last, baseOpenTime, last));
+                    }
+                    target.first = Math.min(target.first, time);
+                    target.last = Math.max(target.last, time);
+                    pending.add(new PendingCandle(layer.interval, target.candle.toCandleModel(), true, true));
+                    break;
+                case CREATED:
+                    final long openTime = align(layer.interval, baseOpenTime);
+                    FixedPointCandle candle = new FixedPointCandle(scale);
+                    candle.open(openTime, rate, amount);
+                    layer.insert(new ClosedCandle(candle, nextTime(layer.interval, openTime), time, time));
+                    pending.add(new PendingCandle(layer.interval, candle.toCandleModel(), false, true));
+                    break;
+                default:
+                    break;
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * @return open time of the open base candle, or of the period rolled to while it is closed
+     */
+    private long getCurrentOpenTime() {
+        final Layer base = layers[0];
+        return base.opened ? base.candle.getOpenTime() : rolledTo;
+    }
+
+    /**
+     * @return true if the trade is the first one of a coarser candle, given whether it is the first one of its base candle
+     */
+    private static boolean isFirst(long firstBaseOpenTime, long baseOpenTime, boolean firstOfBase) {
+        return baseOpenTime < firstBaseOpenTime || (baseOpenTime == firstBaseOpenTime && firstOfBase);
+    }
+
+    /**
+     * @return true if the trade is the last one of a coarser candle, given whether it is the last one of its base candle
+     */
+    private static boolean isLast(long lastBaseOpenTime, long baseOpenTime, boolean lastOfBase) {
+        return baseOpenTime > lastBaseOpenTime || (baseOpenTime == lastBaseOpenTime && lastOfBase);
+    }
+
+    /**
+     * Drops the closed candles no late trade can reach anymore.
+     */
+    private void expire() {
+        final long horizon = watermark - lateWindow;
+        for (Layer layer : layers) {
+            while (!layer.closed.isEmpty() && layer.closed.get(0).closeTime <= horizon) {
+                layer.closed.remove(0);
+            }
+        }
+    }
+
+    private void close(int index) {
+        final Layer layer = layers[index];
+        final FixedPointCandle candle = layer.candle;
+
+        pending.add(new PendingCandle(layer.interval, candle.toCandleModel(), candle.getOpenTime() == layer.persistedOpenTime, true));
+        if (lateWindow > 0) {
+            layer.insert(new ClosedCandle(candle.copy(), layer.closeTime, layer.first, layer.last));
+        }
+        layer.opened = false;
+
+        for (int i = index + 1; i < layers.length; i++) {
+            if (layers[i].source == index) {
+                rollup(i, layer);
+            }
+        }
+    }
+
+    /**
+     * Closes coarser candles whose period ended before the given base open time, finer ones first,
+     * so that every open candle belongs to the current period.
+     */
+    private void closeExpired(long openTime) {
+        for (int i = 1; i < layers.length; i++) {
+            if (layers[i].opened && openTime >= layers[i].closeTime) {
+                close(i);
+            }
+        }
+    }
+
+    private void rollup(int index, Layer sourceLayer) {
+        final Layer layer = layers[index];
+        final FixedPointCandle closedSource = sourceLayer.candle;
+        final long first = sourceLayer.source < 0 ? closedSource.getOpenTime() : sourceLayer.first;
+        final long last = sourceLayer.source < 0 ? closedSource.getOpenTime() : sourceLayer.last;
+
+        if (layer.opened && closedSource.getOpenTime() >= layer.closeTime) {
+            close(index);
+        }
+        if (layer.opened) {
+            layer.candle.merge(closedSource);
+            layer.last = last;
+        } else {
+            layer.open(align(layer.interval, closedSource.getOpenTime()), scale).open(layer.candle.getOpenTime(), closedSource);
+            layer.first = first;
+            layer.last = last;
+        }
+    }
+
+    private FixedPointCandle view(int index) {
+        final Layer layer = layers[index];
+        if (layer.source < 0) {
+            return layer.opened ? layer.candle.copy() : null;
+        }
+
+        final FixedPointCandle source = view(layer.source);
+        if (isNull(source)) {
+            return layer.opened ? layer.candle.copy() : null;
+        }
+        if (layer.opened && source.getOpenTime() < layer.closeTime) {
+            FixedPointCandle view = layer.candle.copy();
+            view.merge(source);
+            return view;
+        }
+        FixedPointCandle view = new FixedPointCandle(scale);
+        view.open(align(layer.interval, source.getOpenTime()), source);
+        return view;
+    }
+
+    /**
+     * Changes the scale of all candles of the pair.
+     *
+     * @throws ArithmeticException if a candle overflows at the higher scale, all candles are left at the current
+     *                             scale in this case
+     */
+    private void rescale(int newScale) {
+        try {
+            rescaleCandles(newScale);
+        } catch (ArithmeticException ex) {
+            rescaleCandles(scale);
+            throw ex;
+        }
+        scale = newScale;
+    }
+
+    private void rescaleCandles(int newScale) {
+        for (Layer layer : layers) {
+            if (!isNull(layer.candle)) {
+                layer.candle.rescale(newScale);
+            }
+            for (ClosedCandle closed : layer.closed) {
+                closed.candle.rescale(newScale);
+            }
+        }
+    }
+
+    private static long align(BackDealInterval interval, long timeInMillis) {
+        return Timestamp.valueOf(TimeUtils.getNearestTimeBefore(interval, new Timestamp(timeInMillis).toLocalDateTime())).getTime();
+    }
+
+    private static long nextTime(BackDealInterval interval, long openTime) {
+        return Timestamp.valueOf(TimeUtils.getNextTime(interval, new Timestamp(openTime).toLocalDateTime())).getTime();
+    }
+
+    private static final class Layer {
+
+        private final BackDealInterval interval;
+        private final int source;
+        private final List<ClosedCandle> closed = new ArrayList<>();
+        private FixedPointCandle candle;
+        private boolean opened;
+        private long closeTime;
+        private long first;
+        private long last;
+        private long persistedOpenTime = Long.MIN_VALUE;
+
+        private Layer(BackDealInterval interval, int source) {
+            this.interval = interval;
+            this.source = source;
+        }
+
+        /**
+         * Starts a new period, reusing the candle of the previous one.
+         *
+         * @return the candle of the period, to be filled by the caller
+         */
+        private FixedPointCandle open(long openTime, int scale) {
+            if (isNull(candle) || candle.getScale() != scale) {
+                candle = new FixedPointCandle(scale);
+            }
+            candle.open(openTime, 0, 0);
+            closeTime = nextTime(interval, openTime);
+            opened = true;
+            return candle;
+        }
+
+        private void restore(FixedPointCandle restored) {
+            candle = restored;
+            closeTime = nextTime(interval, restored.getOpenTime());
+            opened = true;
+        }
+
+        private ClosedCandle find(long openTime) {
+            for (ClosedCandle candle : closed) {
+                if (candle.candle.getOpenTime() == openTime) {
+                    return candle;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Keeps the closed candles ordered by open time.
+         */
+        private void insert(ClosedCandle candle) {
+            int index = closed.size();
+            while (index > 0 && closed.get(index - 1).candle.getOpenTime() > candle.candle.getOpenTime()) {
+                index--;
+            }
+            closed.add(index, candle);
+        }
+    }
+
+    /**
+     * Closed candle kept for late trades, with the same first and last times as the open candle of its layer.
+     */
+    private static final class ClosedCandle {
+
+        private final FixedPointCandle candle;
+        private final long closeTime;
+        private long first;
+        private long last;
+
+        private ClosedCandle(FixedPointCandle candle, long closeTime, long first, long last) {
+            this.candle = candle;
+            this.closeTime = closeTime;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    static final class PendingCandle {
+
+        final BackDealInterval interval;
+        final CandleModel model;
+        final boolean persisted;
+        final boolean closed;
+
+        private PendingCandle(BackDealInterval interval, CandleModel model, boolean persisted, boolean closed) {
+            this.interval = interval;
+            this.model = model;
+            this.persisted = persisted;
+            this.closed = closed;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Ring of single thread workers, each pair is owned by the worker chosen by the hash of its name.
+ * Tasks of one pair run one at a time and in submission order, so the state of a pair is only ever touched by
+ * its owner and needs no locks. Every worker has a bounded mailbox, a full mailbox blocks the submitting thread.
+ * The time a task waits in the mailbox is recorded as {@code candles.workers.wait}.
+ */
+@Log4j2
+@Component
+public class PairExecutor {
+
+    private final ThreadPoolExecutor[] workers;
+    private final Thread[] threads;
+    private final Timer waitTimer;
+
+    @Autowired
+    public PairExecutor(MeterRegistry meterRegistry,
+                        @Value("${candles.workers.count:0}") int count,
+                        @Value("${candles.workers.mailbox-size:10000}") int mailboxSize) {
+        this.workers = new ThreadPoolExecutor[count > 0 ? count : Runtime.getRuntime().availableProcessors()];
+        this.threads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            final int index = i;
+            final String name = "pair-worker-" + i;
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(mailboxSize),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        threads[index] = thread;
+                        return thread;
+                    },
+                    (runnable, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException(name + " is shut down");
+                        }
+                        try {
+                            executor.getQueue().put(runnable);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(ex);
+                        }
+                    });
+            workers[i].prestartAllCoreThreads();
+        }
+
+        meterRegistry.gauge("candles.workers.mailbox.depth", workers,
+                value -> Arrays.stream(value).mapToInt(worker -> worker.getQueue().size()).sum());
+        this.waitTimer = meterRegistry.timer("candles.workers.wait");
+    }
+
+    public CompletableFuture<Void> execute(String pairName, Runnable task) {
+        final long submitted = System.nanoTime();
+        return CompletableFuture.runAsync(() -> {
+            waitTimer.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+            task.run();
+        }, getWorker(pairName));
+    }
+
+    public <T> CompletableFuture<T> evaluate(String pairName, Supplier<T> task) {
+        final long submitted = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            waitTimer.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+            return task.get();
+        }, getWorker(pairName));
+    }
+
+    /**
+     * @return true if called from a task of the worker owning the pair, which may touch the state of the pair
+     * directly but must not wait for a task of its own worker
+     */
+    public boolean isOwnerThread(String pairName) {
+        return Thread.currentThread() == threads[index(pairName)];
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+        for (ThreadPoolExecutor worker : workers) {
+            try {
+                if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+                    log.warn("Worker did not finish its mailbox, {} tasks left", worker.getQueue().size());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private ThreadPoolExecutor getWorker(String pairName) {
+        return workers[index(pairName)];
+    }
+
+    private int index(String pairName) {
+        return Math.floorMod(pairName.hashCode(), workers.length);
+    }
+}
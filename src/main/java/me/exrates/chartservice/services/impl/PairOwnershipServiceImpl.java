@@ -0,0 +1,362 @@
+package me.exrates.chartservice.services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.model.exceptions.TradeForwardingException;
+import me.exrates.chartservice.services.PairOwnershipHandler;
+import me.exrates.chartservice.services.PairOwnershipService;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Splits the pairs between the nodes of the cluster, enabled by {@code cluster.enabled}.
+ * Nodes announce themselves by heartbeats in a redis sorted set, every pair is assigned to one of the live nodes
+ * by rendezvous hashing, so a node joining or leaving moves only the pairs assigned to it. A node takes an
+ * assigned pair by a redis lease that it renews on every heartbeat, and applies its trades as long as it holds
+ * the lease. Trades of other pairs are forwarded to the queue of their node, a trade that can be neither applied
+ * nor forwarded fails so that the broker delivers it again.
+ * <p>
+ * Heartbeats run on their own thread, so a busy scheduler never delays the renewal of the leases, hand-offs run
+ * on the scheduler. The holders of the leases this node failed to take are remembered until the next heartbeat,
+ * so the trades of such a pair cost no redis round trip.
+ * <p>
+ * When the assignment of a held pair moves away, the node writes out the pair, stores its open candles in redis
+ * and releases the lease, the next owner starts from the stored state. A node shutting down leaves the cluster
+ * and hands off all its pairs the same way.
+ */
+@Log4j2
+@Service
+@DependsOn({"pairExecutor", "elasticsearchBulkWriter"})
+public class PairOwnershipServiceImpl implements PairOwnershipService {
+
+    private static final String NODES_KEY = "cluster:nodes";
+    private static final String LEASE_PREFIX = "cluster:lease:";
+    private static final String STATE_PREFIX = "cluster:state:";
+
+    private static final RedisScript<String> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return ARGV[1] else return redis.call('get', KEYS[1]) end", String.class);
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end", Long.class);
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisTemplate<String, byte[]> stateTemplate;
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper mapper;
+    private final boolean enabled;
+    private final String nodeId;
+    private final String tradesTopic;
+    private final long leaseTime;
+    private final long heartbeatInterval;
+
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> assignments = new ConcurrentHashMap<>();
+    private final Map<String, String> leaseHolders = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+    private final Counter forwardedCounter;
+
+    private volatile List<String> nodes;
+    private volatile PairOwnershipHandler handler;
+
+    @Autowired
+    public PairOwnershipServiceImpl(StringRedisTemplate redisTemplate,
+                                    @Qualifier("candlesRedisTemplate") RedisTemplate<String, byte[]> stateTemplate,
+                                    RabbitTemplate rabbitTemplate,
+                                    @Qualifier("jsonMapper") ObjectMapper mapper,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${cluster.enabled:false}") boolean enabled,
+                                    @Value("${cluster.node-id:}") String nodeId,
+                                    @Value("${spring.rabbitmq.tradestopic}") String tradesTopic,
+                                    @Value("${cluster.lease-time:10000}") long leaseTime,
+                                    @Value("${cluster.heartbeat-interval:3000}") long heartbeatInterval) {
+        this.redisTemplate = redisTemplate;
+        this.stateTemplate = stateTemplate;
+        this.rabbitTemplate = rabbitTemplate;
+        this.mapper = mapper;
+        this.enabled = enabled;
+        this.nodeId = nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+        this.tradesTopic = tradesTopic;
+        this.leaseTime = leaseTime;
+        this.heartbeatInterval = heartbeatInterval;
+        this.nodes = Collections.singletonList(this.nodeId);
+
+        this.forwardedCounter = meterRegistry.counter("cluster.trades.forwarded");
+        meterRegistry.gauge("cluster.pairs.owned", owned, Set::size);
+
+        if (enabled) {
+            heartbeat();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public String getNodeQueue() {
+        return getNodeQueue(nodeId);
+    }
+
+    @Override
+    public boolean isOwned(String pairName) {
+        return !enabled || owned.contains(pairName);
+    }
+
+    @Override
+    public boolean acquire(String pairName) {
+        if (isOwned(pairName)) {
+            return true;
+        }
+        if (!nodeId.equals(getAssignedNode(pairName)) || leaseHolders.containsKey(pairName)) {
+            return false;
+        }
+        return tryAcquire(pairName);
+    }
+
+    private synchronized boolean tryAcquire(String pairName) {
+        if (owned.contains(pairName)) {
+            return true;
+        }
+        if (leaseHolders.containsKey(pairName)) {
+            return false;
+        }
+
+        final byte[] state;
+        try {
+            String holder = redisTemplate.execute(ACQUIRE_SCRIPT, Collections.singletonList(LEASE_PREFIX + pairName),
+                    nodeId, String.valueOf(leaseTime));
+            if (!nodeId.equals(holder)) {
+                if (!isNull(holder)) {
+                    leaseHolders.put(pairName, holder);
+                }
+                return false;
+            }
+            state = stateTemplate.opsForValue().get(STATE_PREFIX + pairName);
+            if (!isNull(state)) {
+                stateTemplate.delete(STATE_PREFIX + pairName);
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Problem with acquiring pair {}", pairName, ex);
+            return false;
+        }
+
+        if (!isNull(handler)) {
+            handler.onAcquired(pairName, state);
+        }
+        owned.add(pairName);
+        log.info("Acquired pair {}{}", pairName, isNull(state) ? "" : " with handed off state");
+        return true;
+    }
+
+    /**
+     * The trade goes to the node the pair is assigned to, or to the holder of the lease while this node is
+     * assigned the pair but cannot take it yet.
+     */
+    @Override
+    public void forward(TradeDataDto dto) {
+        String target = getAssignedNode(dto.getPairName());
+        if (nodeId.equals(target)) {
+            target = leaseHolders.get(dto.getPairName());
+        }
+        if (isNull(target) || nodeId.equals(target)) {
+            throw new TradeForwardingException("No node holds pair " + dto.getPairName());
+        }
+        try {
+            Message message = MessageBuilder.withBody(mapper.writeValueAsBytes(dto))
+                    .setContentType(MessageProperties.CONTENT_TYPE_JSON)
+                    .setContentEncoding(StandardCharsets.UTF_8.name())
+                    .build();
+            rabbitTemplate.send("", getNodeQueue(target), message);
+            forwardedCounter.increment();
+        } catch (AmqpException | JsonProcessingException ex) {
+            throw new TradeForwardingException("Problem with forwarding trade " + dto.getOrderId() + " to node " + target, ex);
+        }
+    }
+
+    @Override
+    public void setHandler(PairOwnershipHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Renews the node and its leases and forgets the lease holders seen since the last beat.
+     */
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            beat();
+        } catch (RuntimeException ex) {
+            log.error("Problem with cluster heartbeat", ex);
+        }
+    }
+
+    private void beat() {
+        leaseHolders.clear();
+        try {
+            final long now = System.currentTimeMillis();
+            redisTemplate.opsForZSet().add(NODES_KEY, nodeId, now);
+            redisTemplate.opsForZSet().removeRangeByScore(NODES_KEY, 0, now - leaseTime);
+
+            Set<String> live = redisTemplate.opsForZSet().range(NODES_KEY, 0, -1);
+            updateNodes(isNull(live) || live.isEmpty() ? Collections.singletonList(nodeId) : new ArrayList<>(live));
+
+            for (String pairName : owned) {
+                Long renewed = redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(LEASE_PREFIX + pairName),
+                        nodeId, String.valueOf(leaseTime));
+                if (isNull(renewed) || renewed == 0L) {
+                    log.warn("Lost lease of pair {}", pairName);
+                    owned.remove(pairName);
+                    if (!isNull(handler)) {
+                        handler.onLost(pairName);
+                    }
+                }
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Problem with cluster heartbeat", ex);
+        }
+    }
+
+    /**
+     * Hands off the held pairs assigned to other nodes. Runs on the scheduler rather than the heartbeat thread,
+     * as a hand-off waits for the pair to be written out.
+     */
+    @Scheduled(fixedDelayString = "${cluster.heartbeat-interval:3000}")
+    public void rebalance() {
+        if (!enabled) {
+            return;
+        }
+        for (String pairName : owned) {
+            if (!nodeId.equals(getAssignedNode(pairName))) {
+                handOff(pairName);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (!enabled) {
+            return;
+        }
+        heartbeats.shutdown();
+        try {
+            heartbeats.awaitTermination(leaseTime, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            redisTemplate.opsForZSet().remove(NODES_KEY, nodeId);
+        } catch (DataAccessException ex) {
+            log.warn("Problem with leaving the cluster", ex);
+        }
+        owned.forEach(this::handOff);
+    }
+
+    private void handOff(String pairName) {
+        owned.remove(pairName);
+        byte[] state = isNull(handler) ? null : handler.onReleasing(pairName);
+        try {
+            if (!isNull(state)) {
+                stateTemplate.opsForValue().set(STATE_PREFIX + pairName, state, leaseTime * 6, TimeUnit.MILLISECONDS);
+            }
+            redisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(LEASE_PREFIX + pairName), nodeId);
+            log.info("Handed off pair {}", pairName);
+        } catch (DataAccessException ex) {
+            log.warn("Problem with handing off pair {}, the lease will expire", pairName, ex);
+        }
+    }
+
+    private void updateNodes(List<String> live) {
+        Collections.sort(live);
+        if (!live.equals(nodes)) {
+            log.info("Cluster nodes changed to {}", live);
+            nodes = live;
+            assignments.clear();
+        }
+    }
+
+    /**
+     * Rendezvous hashing: the pair goes to the node with the highest hash of the node and the pair.
+     */
+    private String getAssignedNode(String pairName) {
+        String assigned = assignments.get(pairName);
+        if (!isNull(assigned)) {
+            return assigned;
+        }
+        final List<String> current = nodes;
+
+        int best = Integer.MIN_VALUE;
+        for (String node : current) {
+            final int hash = HASH.newHasher()
+                    .putString(node, StandardCharsets.UTF_8)
+                    .putString(pairName, StandardCharsets.UTF_8)
+                    .hash()
+                    .asInt();
+            if (isNull(assigned) || hash > best) {
+                best = hash;
+                assigned = node;
+            }
+        }
+        if (current == nodes) {
+            assignments.put(pairName, assigned);
+        }
+        return assigned;
+    }
+
+    private String getNodeQueue(String node) {
+        return tradesTopic + "." + node;
+    }
+}
@@ -0,0 +1,235 @@
+package me.exrates.chartservice.services.impl;
+
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.FixedPointCandle;
+import me.exrates.chartservice.model.TickerDto;
+import me.exrates.chartservice.model.enums.IntervalType;
+import me.exrates.chartservice.utils.TimeUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Trades of the last 24 hours of one pair in a ring of 48 buckets of 30 minutes, each a fixed point candle of the
+ * pair scale. A trade is folded into the bucket of its period and a bucket is reused when its slot comes round
+ * again, so a ticker is aggregated from at most 48 buckets whatever the number of trades. The window is the
+ * current period and the 47 before it, between 23.5 and 24 hours.
+ * <p>
+ * Trades come from the pair worker and tickers are read by the api threads, both under the lock of the ticker.
+ */
+@Log4j2
+final class PairTicker {
+
+    static final BackDealInterval BUCKET_INTERVAL = BackDealInterval.of(30, IntervalType.MINUTE);
+    static final int BUCKETS = 48;
+
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+
+    private final FixedPointCandle[] buckets = new FixedPointCandle[BUCKETS];
+    private final long[] firstTimes = new long[BUCKETS];
+    private final long[] lastTimes = new long[BUCKETS];
+    private int scale = FixedPointCandle.DEFAULT_SCALE;
+    private BigDecimal lastRate;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Folds the trade into the bucket of its period, raising the scale of all buckets when the values have more
+     * digits and lowering it when they do not fit.
+     * A trade older than the period held by its slot is outside the window and only skipped.
+     */
+    synchronized void apply(long tradeTime, BigDecimal rate, BigDecimal amount) {
+        if (tradeTime >= lastTime) {
+            lastRate = rate;
+            lastTime = tradeTime;
+        }
+        final long openTime = align(tradeTime);
+        final int index = index(openTime);
+        FixedPointCandle bucket = buckets[index];
+        if (!isNull(bucket) && bucket.getOpenTime() > openTime) {
+            return;
+        }
+
+        final int fitScale = FixedPointCandle.fitScale(amount, FixedPointCandle.fitScale(rate, scale));
+        for (int newScale = fitScale; newScale >= 0; newScale--) {
+            try {
+                final long rateMantissa = FixedPointCandle.toMantissa(rate, newScale);
+                final long amountMantissa = FixedPointCandle.toMantissa(amount, newScale);
+                if (newScale != scale) {
+                    rescale(newScale);
+                }
+                if (isNull(bucket) || bucket.getOpenTime() < openTime) {
+                    if (isNull(bucket)) {
+                        bucket = new FixedPointCandle(scale);
+                        buckets[index] = bucket;
+                    }
+                    bucket.open(openTime, rateMantissa, amountMantissa);
+                    firstTimes[index] = tradeTime;
+                    lastTimes[index] = tradeTime;
+                } else {
+                    bucket.apply(rateMantissa, amountMantissa, tradeTime < firstTimes[index], tradeTime >= lastTimes[index]);
+                    firstTimes[index] = Math.min(firstTimes[index], tradeTime);
+                    lastTimes[index] = Math.max(lastTimes[index], tradeTime);
+                }
+                return;
+            } catch (ArithmeticException ex) {
+                log.debug("Trade with rate {} and amount {} does not fit into scale {}", rate, amount, newScale);
+            }
+        }
+        log.warn("Skipped trade with rate {} and amount {} out of fixed point range", rate, amount);
+    }
+
+    /**
+     * Fills the buckets with the closed 30 minute candles of the pair, buckets that got trades already are kept.
+     */
+    synchronized void warmUp(List<CandleModel> candles) {
+        for (CandleModel model : candles) {
+            final long openTime = model.getTimeInMillis();
+            final int index = index(openTime);
+            if (!isNull(buckets[index]) && buckets[index].getOpenTime() >= openTime) {
+                continue;
+            }
+            fit(model);
+            try {
+                buckets[index] = FixedPointCandle.of(model, scale);
+            } catch (ArithmeticException ex) {
+                log.debug("Skipped candle {} out of fixed point range", model);
+                continue;
+            }
+            firstTimes[index] = openTime;
+            lastTimes[index] = openTime + BUCKET_MILLIS - 1;
+            if (lastTimes[index] > lastTime) {
+                lastRate = model.getCloseRate();
+                lastTime = lastTimes[index];
+            }
+        }
+    }
+
+    /**
+     * Replaces the bucket of the given open 30 minute candle by it. The candle has to be read on the pair worker
+     * after the trades applied here, so it holds every trade of the bucket and those applied before the start.
+     */
+    synchronized void seed(CandleModel model) {
+        final long openTime = model.getTimeInMillis();
+        final int index = index(openTime);
+        final boolean live = !isNull(buckets[index]) && buckets[index].getOpenTime() == openTime;
+        if (!isNull(buckets[index]) && buckets[index].getOpenTime() > openTime) {
+            return;
+        }
+        fit(model);
+        try {
+            buckets[index] = FixedPointCandle.of(model, scale);
+        } catch (ArithmeticException ex) {
+            log.debug("Skipped candle {} out of fixed point range", model);
+            return;
+        }
+        firstTimes[index] = openTime;
+        if (!live) {
+            lastTimes[index] = openTime;
+        }
+        if (isNull(lastRate)) {
+            lastRate = model.getCloseRate();
+            lastTime = openTime;
+        }
+    }
+
+    /**
+     * @return the ticker of the window ending at the given time, null if the pair has no trades
+     */
+    synchronized TickerDto toTicker(String pairName, long now) {
+        if (isNull(lastRate)) {
+            return null;
+        }
+        final long windowStart = align(now) - (BUCKETS - 1) * BUCKET_MILLIS;
+
+        FixedPointCandle first = null;
+        long high = Long.MIN_VALUE;
+        long low = Long.MAX_VALUE;
+        BigDecimal volume = BigDecimal.ZERO;
+        for (FixedPointCandle bucket : buckets) {
+            if (isNull(bucket) || bucket.getOpenTime() < windowStart) {
+                continue;
+            }
+            if (isNull(first) || bucket.getOpenTime() < first.getOpenTime()) {
+                first = bucket;
+            }
+            high = Math.max(high, bucket.getHighRate());
+            low = Math.min(low, bucket.getLowRate());
+            volume = volume.add(FixedPointCandle.toDecimal(bucket.getVolume(), scale));
+        }
+
+        TickerDto.Builder ticker = TickerDto.builder()
+                .pairName(pairName)
+                .lastRate(lastRate)
+                .lastTradeTime(new Timestamp(lastTime).toLocalDateTime())
+                .volume(volume);
+        if (isNull(first)) {
+            return ticker
+                    .openRate(lastRate)
+                    .highRate(lastRate)
+                    .lowRate(lastRate)
+                    .changePercent(BigDecimal.ZERO)
+                    .build();
+        }
+        final BigDecimal openRate = FixedPointCandle.toDecimal(first.getOpenRate(), scale);
+        return ticker
+                .openRate(openRate)
+                .highRate(FixedPointCandle.toDecimal(high, scale))
+                .lowRate(FixedPointCandle.toDecimal(low, scale))
+                .changePercent(openRate.signum() == 0
+                        ? BigDecimal.ZERO
+                        : lastRate.subtract(openRate).multiply(HUNDRED).divide(openRate, 2, RoundingMode.HALF_UP))
+                .build();
+    }
+
+    /**
+     * @throws ArithmeticException if a bucket overflows at the higher scale, all buckets are left at the current
+     *                             scale in this case
+     */
+    private void rescale(int newScale) {
+        try {
+            rescaleBuckets(newScale);
+        } catch (ArithmeticException ex) {
+            rescaleBuckets(scale);
+            throw ex;
+        }
+        scale = newScale;
+    }
+
+    private void rescaleBuckets(int newScale) {
+        for (FixedPointCandle bucket : buckets) {
+            if (!isNull(bucket)) {
+                bucket.rescale(newScale);
+            }
+        }
+    }
+
+    /**
+     * Raises the scale of all buckets as far as they fit, up to the scale the candle needs.
+     */
+    private void fit(CandleModel model) {
+        for (int newScale = FixedPointCandle.fitScale(model, scale); newScale > scale; newScale--) {
+            try {
+                rescale(newScale);
+                return;
+            } catch (ArithmeticException ex) {
+                log.debug("Buckets do not fit into scale {}", newScale);
+            }
+        }
+    }
+
+    private static int index(long openTime) {
+        return (int) Math.floorMod(Math.floorDiv(openTime, BUCKET_MILLIS), (long) BUCKETS);
+    }
+
+    private static long align(long timeInMillis) {
+        return Timestamp.valueOf(TimeUtils.getNearestTimeBefore(BUCKET_INTERVAL, new Timestamp(timeInMillis).toLocalDateTime())).getTime();
+    }
+}
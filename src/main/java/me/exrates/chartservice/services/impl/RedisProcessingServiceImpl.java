@@ -0,0 +1,136 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.serializers.CandleCodec;
+import me.exrates.chartservice.services.RedisProcessingService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the latest closed candles of every pair and interval in a redis sorted set scored by candle open time.
+ * The companion {@code <key>:from} value holds the time from which the set is known to be complete.
+ */
+@Log4j2
+@Service
+public class RedisProcessingServiceImpl implements RedisProcessingService {
+
+    private static final String LOADED_FROM_SUFFIX = ":from";
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final CandleCodec codec;
+    private final int windowSize;
+
+    private final Timer readTimer;
+    private final Timer writeTimer;
+
+    @Autowired
+    public RedisProcessingServiceImpl(@Qualifier("candlesRedisTemplate") RedisTemplate<String, byte[]> redisTemplate,
+                                      CandleCodec codec,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${candles.cache.window-size:1000}") int windowSize) {
+        this.redisTemplate = redisTemplate;
+        this.codec = codec;
+        this.windowSize = windowSize;
+
+        this.readTimer = meterRegistry.timer("candles.serialization", "format", "codec", "operation", "read");
+        this.writeTimer = meterRegistry.timer("candles.serialization", "format", "codec", "operation", "write");
+    }
+
+    @Override
+    public List<CandleModel> get(String key, long fromMillis, long toMillis) {
+        try {
+            Set<byte[]> values = redisTemplate.opsForZSet().rangeByScore(key, fromMillis, toMillis - 1);
+            if (isNull(values)) {
+                return Collections.emptyList();
+            }
+            final long start = System.nanoTime();
+            List<CandleModel> models = values.stream()
+                    .map(codec::decodeOne)
+                    .collect(toList());
+            readTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            return models;
+        } catch (DataAccessException ex) {
+            log.warn("Problem with getting candles from redis", ex);
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public Long getLoadedFrom(String key) {
+        try {
+            byte[] value = redisTemplate.opsForValue().get(key + LOADED_FROM_SUFFIX);
+
+            return isNull(value) ? null : ByteBuffer.wrap(value).getLong();
+        } catch (DataAccessException ex) {
+            log.warn("Problem with getting candles from redis", ex);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, List<CandleModel> models, long loadedFrom) {
+        try {
+            if (!models.isEmpty()) {
+                final long start = System.nanoTime();
+                Set<ZSetOperations.TypedTuple<byte[]>> tuples = new HashSet<>();
+                models.forEach(model -> tuples.add(new DefaultTypedTuple<>(
+                        codec.encode(model), (double) model.getTimeInMillis())));
+                writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                redisTemplate.opsForZSet().add(key, tuples);
+            }
+            redisTemplate.opsForValue().set(key + LOADED_FROM_SUFFIX, ByteBuffer.allocate(Long.BYTES).putLong(loadedFrom).array());
+            trim(key);
+        } catch (DataAccessException ex) {
+            log.warn("Problem with putting candles to redis", ex);
+        }
+    }
+
+    @Override
+    public void append(String key, CandleModel model) {
+        try {
+            final long timeInMillis = model.getTimeInMillis();
+
+            final long start = System.nanoTime();
+            final byte[] value = codec.encode(model);
+            writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            redisTemplate.opsForZSet().removeRangeByScore(key, timeInMillis, timeInMillis);
+            redisTemplate.opsForZSet().add(key, value, timeInMillis);
+            trim(key);
+        } catch (DataAccessException ex) {
+            log.warn("Problem with putting candles to redis", ex);
+        }
+    }
+
+    private void trim(String key) {
+        Long removed = redisTemplate.opsForZSet().removeRange(key, 0, -windowSize - 1);
+        if (isNull(removed) || removed == 0) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<byte[]>> first = redisTemplate.opsForZSet().rangeWithScores(key, 0, 0);
+        if (!isNull(first) && !first.isEmpty()) {
+            long loadedFrom = first.iterator().next().getScore().longValue();
+            redisTemplate.opsForValue().set(key + LOADED_FROM_SUFFIX, ByteBuffer.allocate(Long.BYTES).putLong(loadedFrom).array());
+        }
+    }
+}
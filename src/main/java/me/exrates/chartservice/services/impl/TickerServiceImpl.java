@@ -0,0 +1,238 @@
+package me.exrates.chartservice.services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TickerDto;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.services.AsyncElasticsearchProcessingService;
+import me.exrates.chartservice.services.PairOwnershipService;
+import me.exrates.chartservice.services.TickerService;
+import me.exrates.chartservice.services.TradeDataService;
+import me.exrates.chartservice.services.TradeListener;
+import me.exrates.chartservice.utils.TimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static java.util.Objects.isNull;
+
+/**
+ * 24 hour tickers of the pairs, kept up to date from the applied trades in a {@link PairTicker} per pair, so
+ * reading them touches neither elasticsearch nor the open candles.
+ * A pair gets its ticker with its first trade after the start of the service, which is warmed up in the background
+ * if {@code tickers.warm-up} is enabled: the closed 30 minute candles of the pair fill the window and the open one,
+ * restored from the journal, the current bucket.
+ * <p>
+ * In a cluster a node keeps the tickers of the pairs it owns, a ticker of a pair handed off is dropped and built
+ * again on its return. Every node publishes the tickers it keeps to a redis hash each {@code tickers.publish-interval}
+ * and serves the tickers of the other pairs from there, so every node answers for all pairs, the tickers of other
+ * nodes being up to one interval old.
+ */
+@Log4j2
+@Service
+public class TickerServiceImpl implements TickerService, TradeListener {
+
+    private static final String TICKERS_KEY = "cluster:tickers";
+
+    private final TradeDataService tradeDataService;
+    private final AsyncElasticsearchProcessingService asyncElasticsearchProcessingService;
+    private final PairOwnershipService pairOwnershipService;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper mapper;
+    private final boolean warmUp;
+
+    private final Map<String, PairTicker> tickers = new ConcurrentSkipListMap<>();
+
+    @Autowired
+    public TickerServiceImpl(TradeDataService tradeDataService,
+                             AsyncElasticsearchProcessingService asyncElasticsearchProcessingService,
+                             PairOwnershipService pairOwnershipService,
+                             StringRedisTemplate redisTemplate,
+                             @Qualifier("jsonMapper") ObjectMapper mapper,
+                             @Value("${tickers.warm-up:true}") boolean warmUp) {
+        this.tradeDataService = tradeDataService;
+        this.asyncElasticsearchProcessingService = asyncElasticsearchProcessingService;
+        this.pairOwnershipService = pairOwnershipService;
+        this.redisTemplate = redisTemplate;
+        this.mapper = mapper;
+        this.warmUp = warmUp;
+    }
+
+    @PostConstruct
+    public void init() {
+        tradeDataService.addTradeListener(this);
+    }
+
+    @Override
+    public void onTrade(TradeDataDto dto) {
+        final long tradeTime = Timestamp.valueOf(dto.getTradeDate()).getTime();
+
+        PairTicker ticker = tickers.get(dto.getPairName());
+        if (isNull(ticker)) {
+            PairTicker created = new PairTicker();
+            ticker = tickers.putIfAbsent(dto.getPairName(), created);
+            if (isNull(ticker)) {
+                created.apply(tradeTime, dto.getExrate(), dto.getAmountBase());
+                warmUp(dto.getPairName(), created);
+                return;
+            }
+        }
+        ticker.apply(tradeTime, dto.getExrate(), dto.getAmountBase());
+    }
+
+    @Override
+    public List<TickerDto> getTickers() {
+        List<TickerDto> result = getOwnedTickers(tickers.keySet());
+        if (pairOwnershipService.isEnabled()) {
+            result.addAll(getPublishedTickers(null, toPairNames(result)));
+            result.sort(Comparator.comparing(TickerDto::getPairName));
+        }
+        return result;
+    }
+
+    @Override
+    public List<TickerDto> getTickers(Collection<String> pairNames) {
+        List<TickerDto> result = getOwnedTickers(pairNames);
+        if (pairOwnershipService.isEnabled() && result.size() < pairNames.size()) {
+            result.addAll(getPublishedTickers(pairNames, toPairNames(result)));
+        }
+        return result;
+    }
+
+    /**
+     * Publishes the tickers kept by this node for the other nodes of the cluster.
+     */
+    @Scheduled(fixedDelayString = "${tickers.publish-interval:1000}")
+    public void publish() {
+        if (!pairOwnershipService.isEnabled()) {
+            return;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (TickerDto dto : getOwnedTickers(tickers.keySet())) {
+            try {
+                values.put(dto.getPairName(), mapper.writeValueAsString(dto));
+            } catch (JsonProcessingException ex) {
+                log.error("Problem with writing ticker of pair {}", dto.getPairName(), ex);
+            }
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.opsForHash().putAll(TICKERS_KEY, values);
+        } catch (DataAccessException ex) {
+            log.warn("Problem with publishing tickers to redis", ex);
+        }
+    }
+
+    private List<TickerDto> getOwnedTickers(Collection<String> pairNames) {
+        final long now = System.currentTimeMillis();
+
+        List<TickerDto> result = new ArrayList<>(pairNames.size());
+        for (String pairName : pairNames) {
+            PairTicker ticker = tickers.get(pairName);
+            if (isNull(ticker)) {
+                continue;
+            }
+            if (!pairOwnershipService.isOwned(pairName)) {
+                tickers.remove(pairName, ticker);
+                continue;
+            }
+            TickerDto dto = ticker.toTicker(pairName, now);
+            if (!isNull(dto)) {
+                result.add(dto);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param pairNames pairs to read, all published pairs if null
+     * @param skipped   pairs served by this node already
+     */
+    private List<TickerDto> getPublishedTickers(Collection<String> pairNames, Set<String> skipped) {
+        List<Object> values;
+        try {
+            if (isNull(pairNames)) {
+                values = new ArrayList<>(redisTemplate.opsForHash().entries(TICKERS_KEY).values());
+            } else {
+                List<Object> fields = new ArrayList<>(pairNames);
+                fields.removeAll(skipped);
+                values = fields.isEmpty() ? Collections.emptyList() : redisTemplate.opsForHash().multiGet(TICKERS_KEY, fields);
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Problem with getting tickers from redis", ex);
+            return Collections.emptyList();
+        }
+
+        List<TickerDto> result = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (isNull(value)) {
+                continue;
+            }
+            try {
+                TickerDto dto = mapper.readValue((String) value, TickerDto.class);
+                if (!skipped.contains(dto.getPairName())) {
+                    result.add(dto);
+                }
+            } catch (IOException ex) {
+                log.warn("Problem with reading ticker from redis", ex);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> toPairNames(List<TickerDto> tickers) {
+        Set<String> pairNames = new HashSet<>();
+        tickers.forEach(dto -> pairNames.add(dto.getPairName()));
+        return pairNames;
+    }
+
+    /**
+     * Seeds the current bucket with the open candle, read in place as trades arrive on the pair worker, and loads
+     * the closed buckets of the window without blocking the worker.
+     */
+    private void warmUp(String pairName, PairTicker ticker) {
+        if (!warmUp) {
+            return;
+        }
+        CandleModel openCandle = tradeDataService.getOpenCandle(pairName, PairTicker.BUCKET_INTERVAL);
+        if (!isNull(openCandle)) {
+            ticker.seed(openCandle);
+        }
+
+        final LocalDateTime to = TimeUtils.getNearestTimeBefore(PairTicker.BUCKET_INTERVAL, LocalDateTime.now());
+        final LocalDateTime from = to.minusMinutes(30L * (PairTicker.BUCKETS - 1));
+
+        asyncElasticsearchProcessingService.getByQueryAsync(from, to, pairName, PairTicker.BUCKET_INTERVAL)
+                .whenComplete((candles, ex) -> {
+                    if (!isNull(ex)) {
+                        log.warn("Ticker of pair {} is not warmed up, it fills from new trades", pairName, ex);
+                        return;
+                    }
+                    ticker.warmUp(candles);
+                    log.debug("Warmed up ticker of pair {} from {} candles", pairName, candles.size());
+                });
+    }
+}
@@ -0,0 +1,461 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.model.enums.IntervalType;
+import me.exrates.chartservice.model.exceptions.TradeForwardingException;
+import me.exrates.chartservice.model.serializers.CandleCodec;
+import me.exrates.chartservice.services.AsyncElasticsearchProcessingService;
+import me.exrates.chartservice.services.CandleCacheService;
+import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import me.exrates.chartservice.services.PairOwnershipHandler;
+import me.exrates.chartservice.services.PairOwnershipService;
+import me.exrates.chartservice.services.TradeDataService;
+import me.exrates.chartservice.services.TradeListener;
+import me.exrates.chartservice.utils.TimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Folds incoming trades into the open candles of every supported interval, see {@link PairCandles}.
+ * Open candles are kept in memory and mutated in place by the worker owning the pair, see {@link PairExecutor}.
+ * Only candles changed since the last flush are pushed to elasticsearch by the scheduled {@link #flush()},
+ * which serializes and writes them on its own thread.
+ * Every trade is written to the {@link CandleJournal} before it is applied and the flush periodically snapshots
+ * the candles, so the open candles survive a restart. Replayed trades are skipped by their order id and late
+ * trades revise the closed candles of their period within the late window, see {@link PairCandles}.
+ * In a cluster only the trades of the pairs held by this node are applied, the others are forwarded, and the open
+ * candles of other pairs are read from elasticsearch, see {@link PairOwnershipService}. A hand-off waits for a
+ * running flush, so the candles flushed before are written before the state of the pair leaves the node.
+ * A pair recovered from the journal is kept only if this node takes its lease again, a node restarting after its
+ * pairs moved on drops their state instead of writing it over the new owner.
+ */
+@Log4j2
+@Service
+public class TradeDataServiceImpl implements TradeDataService, PairOwnershipHandler {
+
+    static final List<BackDealInterval> SUPPORTED_INTERVALS = BackDealInterval.getSupported();
+
+    static final Map<BackDealInterval, BackDealInterval> ROLLUP_SOURCES = new HashMap<>();
+
+    static {
+        ROLLUP_SOURCES.put(BackDealInterval.of(1, IntervalType.HOUR), BackDealInterval.of(30, IntervalType.MINUTE));
+        ROLLUP_SOURCES.put(BackDealInterval.of(4, IntervalType.HOUR), BackDealInterval.of(1, IntervalType.HOUR));
+        ROLLUP_SOURCES.put(BackDealInterval.of(12, IntervalType.HOUR), BackDealInterval.of(4, IntervalType.HOUR));
+        ROLLUP_SOURCES.put(BackDealInterval.of(1, IntervalType.DAY), BackDealInterval.of(12, IntervalType.HOUR));
+        ROLLUP_SOURCES.put(BackDealInterval.of(2, IntervalType.DAY), BackDealInterval.of(1, IntervalType.DAY));
+        ROLLUP_SOURCES.put(BackDealInterval.of(3, IntervalType.DAY), BackDealInterval.of(1, IntervalType.DAY));
+        ROLLUP_SOURCES.put(BackDealInterval.of(1, IntervalType.WEEK), BackDealInterval.of(1, IntervalType.DAY));
+        ROLLUP_SOURCES.put(BackDealInterval.of(3, IntervalType.WEEK), BackDealInterval.of(1, IntervalType.WEEK));
+        ROLLUP_SOURCES.put(BackDealInterval.of(1, IntervalType.MONTH), BackDealInterval.of(1, IntervalType.DAY));
+    }
+
+    private final ElasticsearchProcessingService elasticsearchProcessingService;
+    private final AsyncElasticsearchProcessingService asyncElasticsearchProcessingService;
+    private final CandleCacheService candleCacheService;
+    private final PairExecutor pairExecutor;
+    private final CandleJournal journal;
+    private final CandleCodec codec;
+    private final ElasticsearchBulkWriter bulkWriter;
+    private final PairOwnershipService pairOwnershipService;
+    private final long snapshotInterval;
+    private final long lateWindow;
+    private final int dedupWindow;
+    private final long rollDelay;
+    private final MeterRegistry meterRegistry;
+
+    private long nextSnapshot;
+    private final Map<String, PairCandles> pairCandles = new ConcurrentHashMap<>();
+    private final List<TradeListener> tradeListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Counter> tradeCounters = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    private final Counter duplicateCounter;
+    private final Counter tooLateCounter;
+    private final Counter revisedCounter;
+
+    @Autowired
+    public TradeDataServiceImpl(ElasticsearchProcessingService elasticsearchProcessingService,
+                                AsyncElasticsearchProcessingService asyncElasticsearchProcessingService,
+                                CandleCacheService candleCacheService,
+                                PairExecutor pairExecutor,
+                                CandleJournal journal,
+                                CandleCodec codec,
+                                ElasticsearchBulkWriter bulkWriter,
+                                PairOwnershipService pairOwnershipService,
+                                MeterRegistry meterRegistry,
+                                @Value("${candles.journal.snapshot-interval:60000}") long snapshotInterval,
+                                @Value("${candles.late-window:300000}") long lateWindow,
+                                @Value("${candles.dedup-window:65536}") int dedupWindow,
+                                @Value("${candles.roll-delay:2000}") long rollDelay) {
+        this.elasticsearchProcessingService = elasticsearchProcessingService;
+        this.asyncElasticsearchProcessingService = asyncElasticsearchProcessingService;
+        this.candleCacheService = candleCacheService;
+        this.pairExecutor = pairExecutor;
+        this.journal = journal;
+        this.codec = codec;
+        this.bulkWriter = bulkWriter;
+        this.pairOwnershipService = pairOwnershipService;
+        this.snapshotInterval = snapshotInterval;
+        this.lateWindow = lateWindow;
+        this.dedupWindow = dedupWindow;
+        this.rollDelay = rollDelay;
+        this.meterRegistry = meterRegistry;
+
+        this.duplicateCounter = meterRegistry.counter("candles.trades.skipped", "reason", "duplicate");
+        this.tooLateCounter = meterRegistry.counter("candles.trades.skipped", "reason", "late");
+        this.revisedCounter = meterRegistry.counter("candles.trades.revised");
+    }
+
+    @PostConstruct
+    public void recover() {
+        final boolean recovered = journal.recover(
+                (pairName, state) -> {
+                    PairCandles candles = newPairCandles();
+                    try {
+                        candles.readFrom(new DataInputStream(new ByteArrayInputStream(state)), codec);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    pairCandles.put(pairName, candles);
+                },
+                dto -> pairCandles.computeIfAbsent(dto.getPairName(), pairName -> newPairCandles()).apply(dto));
+        if (!recovered) {
+            pairCandles.clear();
+        }
+        nextSnapshot = System.currentTimeMillis() + snapshotInterval;
+
+        pairOwnershipService.setHandler(this);
+        for (String pairName : new ArrayList<>(pairCandles.keySet())) {
+            if (!pairOwnershipService.acquire(pairName)) {
+                log.info("Dropped recovered state of pair {}, it is held by another node", pairName);
+                pairCandles.remove(pairName);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> handleReceivedTrade(TradeDataDto dto) {
+        if (isNull(dto.getPairName()) || isNull(dto.getExrate()) || isNull(dto.getAmountBase()) || isNull(dto.getTradeDate())) {
+            log.warn("Skipped incomplete trade: {}", dto);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!pairOwnershipService.acquire(dto.getPairName())) {
+            try {
+                pairOwnershipService.forward(dto);
+            } catch (TradeForwardingException ex) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(ex);
+                return future;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final PairCandles candles = pairCandles.computeIfAbsent(dto.getPairName(), pairName -> newPairCandles());
+
+        Counter counter = tradeCounters.get(dto.getPairName());
+        if (isNull(counter)) {
+            counter = tradeCounters.computeIfAbsent(dto.getPairName(), pairName -> meterRegistry.counter("candles.trades", "pair", pairName));
+        }
+        counter.increment();
+
+        return pairExecutor.execute(dto.getPairName(), () -> {
+            if (pairCandles.get(dto.getPairName()) != candles) {
+                pairOwnershipService.forward(dto);
+                return;
+            }
+            if (candles.isDuplicate(dto)) {
+                duplicateCounter.increment();
+                return;
+            }
+            journal.append(dto);
+            switch (candles.apply(dto)) {
+                case REVISED:
+                    revisedCounter.increment();
+                    break;
+                case TOO_LATE:
+                    tooLateCounter.increment();
+                    return;
+                case DUPLICATE:
+                case REJECTED:
+                    return;
+                default:
+                    break;
+            }
+
+            for (TradeListener listener : tradeListeners) {
+                listener.onTrade(dto);
+            }
+        });
+    }
+
+    @Override
+    public void addTradeListener(TradeListener listener) {
+        tradeListeners.add(listener);
+    }
+
+    @Override
+    public CandleModel getOpenCandle(String pairName, BackDealInterval interval) {
+        final int position = interval.getOrdinal();
+        if (position < 0) {
+            return null;
+        }
+        if (!pairOwnershipService.isOwned(pairName)) {
+            final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, LocalDateTime.now());
+
+            return elasticsearchProcessingService.getMany(Collections.singletonMap(pairName, Collections.singletonList(openTime)), interval)
+                    .getOrDefault(pairName, Collections.emptyList()).stream()
+                    .findFirst()
+                    .orElse(null);
+        }
+        final PairCandles candles = pairCandles.get(pairName);
+        if (isNull(candles)) {
+            return null;
+        }
+        if (pairExecutor.isOwnerThread(pairName)) {
+            return candles.getOpenCandle(position);
+        }
+        try {
+            return pairExecutor.evaluate(pairName, () -> candles.getOpenCandle(position)).join();
+        } catch (CompletionException ex) {
+            log.error("Problem with reading open candle of pair {}", pairName, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<CandleModel> getOpenCandleAsync(String pairName, BackDealInterval interval) {
+        final int position = interval.getOrdinal();
+        if (position < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!pairOwnershipService.isOwned(pairName)) {
+            final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, LocalDateTime.now());
+
+            return asyncElasticsearchProcessingService.getByQueryAsync(openTime, TimeUtils.getNextTime(interval, openTime), pairName, interval)
+                    .thenApply(models -> models.isEmpty() ? null : models.get(0));
+        }
+        final PairCandles candles = pairCandles.get(pairName);
+        if (isNull(candles)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            return pairExecutor.evaluate(pairName, () -> candles.getOpenCandle(position));
+        } catch (RejectedExecutionException ex) {
+            CompletableFuture<CandleModel> future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+    }
+
+    /**
+     * Replaces the local state of the pair by the handed off one, a local state recovered from the journal
+     * is kept if nothing was handed off.
+     */
+    @Override
+    public void onAcquired(String pairName, byte[] state) {
+        candleCacheService.evict(pairName);
+        if (isNull(state)) {
+            return;
+        }
+        PairCandles candles = newPairCandles();
+        try {
+            candles.readFrom(new DataInputStream(new ByteArrayInputStream(state)), codec);
+        } catch (IOException ex) {
+            log.error("Problem with reading handed off state of pair {}", pairName, ex);
+            return;
+        }
+        pairExecutor.execute(pairName, () -> pairCandles.put(pairName, candles)).join();
+    }
+
+    /**
+     * Takes the pair off its worker together with the candles changed since the last flush, which are written
+     * out before the state is handed off.
+     */
+    @Override
+    public byte[] onReleasing(String pairName) {
+        synchronized (flushLock) {
+            return release(pairName);
+        }
+    }
+
+    private byte[] release(String pairName) {
+        final Released released;
+        try {
+            released = pairExecutor.evaluate(pairName, () -> {
+                PairCandles candles = pairCandles.remove(pairName);
+                if (isNull(candles)) {
+                    return null;
+                }
+                List<PairCandles.PendingCandle> pending = candles.drain();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    candles.writeTo(new DataOutputStream(bytes), codec);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return new Released(pending, bytes.toByteArray());
+            }).join();
+        } catch (CompletionException ex) {
+            log.error("Problem with capturing state of pair {}", pairName, ex);
+            return null;
+        }
+        if (isNull(released)) {
+            return null;
+        }
+        write(pairName, released.pending);
+        bulkWriter.flush();
+
+        return released.state;
+    }
+
+    @Override
+    public void onLost(String pairName) {
+        pairExecutor.execute(pairName, () -> pairCandles.remove(pairName)).join();
+    }
+
+    /**
+     * Candles whose period ended {@code roll-delay} ago without a later trade are closed first, so they reach
+     * the cache as closed ones. Pairs this node does not hold are never written, another node owns their
+     * documents and cache windows.
+     */
+    @Scheduled(fixedDelayString = "${candles.flush-delay:1000}")
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            flushPairs();
+        }
+    }
+
+    private void flushPairs() {
+        final long rollTime = System.currentTimeMillis() - rollDelay;
+
+        Map<String, CompletableFuture<List<PairCandles.PendingCandle>>> drained = new HashMap<>();
+        pairCandles.forEach((pairName, candles) -> {
+            if (pairOwnershipService.isOwned(pairName)) {
+                drained.put(pairName, pairExecutor.evaluate(pairName, () -> {
+                    candles.roll(rollTime);
+                    return candles.drain();
+                }));
+            }
+        });
+
+        drained.forEach((pairName, future) -> {
+            List<PairCandles.PendingCandle> pending;
+            try {
+                pending = future.join();
+            } catch (CompletionException ex) {
+                log.error("Problem with draining candles of pair {}", pairName, ex);
+                return;
+            }
+
+            write(pairName, pending);
+        });
+
+        journal.force();
+        if (journal.isEnabled() && System.currentTimeMillis() >= nextSnapshot) {
+            snapshot();
+            nextSnapshot = System.currentTimeMillis() + snapshotInterval;
+        }
+    }
+
+    private void write(String pairName, List<PairCandles.PendingCandle> pending) {
+        pending.forEach(candle -> {
+            if (candle.persisted) {
+                elasticsearchProcessingService.update(candle.model, pairName, candle.interval);
+            } else {
+                elasticsearchProcessingService.insert(candle.model, pairName, candle.interval);
+            }
+            if (candle.closed) {
+                candleCacheService.putClosedCandle(pairName, candle.interval, candle.model);
+            }
+        });
+    }
+
+    /**
+     * Captures the state of every pair on its worker after rolling the journal, so each state contains exactly
+     * the trades up to its recorded sequence. The candles flushed before are written out first, only then the
+     * journal segments before the roll are dropped, so no snapshot is taken while elasticsearch has not taken every
+     * candle written before the capture.
+     */
+    private void snapshot() {
+        try {
+            final Path segment = journal.roll();
+
+            Map<String, CompletableFuture<byte[]>> captured = new HashMap<>();
+            Map<String, Long> sequences = new ConcurrentHashMap<>();
+            pairCandles.forEach((pairName, candles) -> {
+                if (!pairOwnershipService.isOwned(pairName)) {
+                    return;
+                }
+                captured.put(pairName, pairExecutor.evaluate(pairName, () -> {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try {
+                        candles.writeTo(new DataOutputStream(bytes), codec);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    sequences.put(pairName, journal.getLastSequence(pairName));
+                    return bytes.toByteArray();
+                }));
+            });
+
+            Map<String, byte[]> states = new HashMap<>();
+            for (Map.Entry<String, CompletableFuture<byte[]>> entry : captured.entrySet()) {
+                states.put(entry.getKey(), entry.getValue().join());
+            }
+            final long written = bulkWriter.getLastSequence();
+            bulkWriter.flush();
+            if (!bulkWriter.isWrittenThrough(written)) {
+                log.warn("Skipped candles snapshot, elasticsearch cluster has not taken all candles");
+                return;
+            }
+
+            journal.writeSnapshot(segment, states, sequences);
+        } catch (IOException | CompletionException ex) {
+            log.error("Problem with writing candles snapshot", ex);
+        }
+    }
+
+    private PairCandles newPairCandles() {
+        return new PairCandles(SUPPORTED_INTERVALS, ROLLUP_SOURCES, lateWindow, dedupWindow);
+    }
+
+    private static final class Released {
+
+        private final List<PairCandles.PendingCandle> pending;
+        private final byte[] state;
+
+        private Released(List<PairCandles.PendingCandle> pending, byte[] state) {
+            this.pending = pending;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package me.exrates.chartservice.utils;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Lazy transformations of time ordered candle streams, applied while the candles are read.
+ */
+public final class CandleStreams {
+
+    private CandleStreams() {
+    }
+
+    /**
+     * Adds a candle for every period without trades between the first candle and {@code toDate}, carrying the
+     * previous close forward with zero volume. Periods before the first candle are left empty, there is no
+     * close to carry into them.
+     */
+    public static Stream<CandleModel> fillGaps(Stream<CandleModel> models, BackDealInterval interval, LocalDateTime toDate) {
+        return wrap(models, new GapFillingIterator(models.iterator(), interval, toDate));
+    }
+
+    /**
+     * Merges the candles of every period of the given interval into one candle opened at the start of the period.
+     */
+    public static Stream<CandleModel> merge(Stream<CandleModel> models, BackDealInterval interval) {
+        return wrap(models, new MergingIterator(models.iterator(), interval));
+    }
+
+    private static Stream<CandleModel> wrap(Stream<CandleModel> source, Iterator<CandleModel> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(source::close);
+    }
+
+    private static CandleModel flat(BigDecimal rate, LocalDateTime openTime) {
+        return CandleModel.builder()
+                .openRate(rate)
+                .closeRate(rate)
+                .highRate(rate)
+                .lowRate(rate)
+                .volume(BigDecimal.ZERO)
+                .candleOpenTime(openTime)
+                .build();
+    }
+
+    private static final class GapFillingIterator implements Iterator<CandleModel> {
+
+        private final Iterator<CandleModel> source;
+        private final BackDealInterval interval;
+        private final LocalDateTime toDate;
+
+        private CandleModel previous;
+        private CandleModel pending;
+        private LocalDateTime expected;
+
+        private GapFillingIterator(Iterator<CandleModel> source, BackDealInterval interval, LocalDateTime toDate) {
+            this.source = source;
+            this.interval = interval;
+            this.toDate = toDate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (isNull(previous)) {
+                return source.hasNext();
+            }
+            return !isNull(pending) || source.hasNext() || expected.isBefore(toDate);
+        }
+
+        @Override
+        public CandleModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (isNull(pending) && source.hasNext()) {
+                pending = source.next();
+            }
+            if (!isNull(previous) && (isNull(pending) || pending.getCandleOpenTime().isAfter(expected))) {
+                CandleModel filler = flat(previous.getCloseRate(), expected);
+                expected = TimeUtils.getNextTime(interval, expected);
+                return filler;
+            }
+            CandleModel model = pending;
+            pending = null;
+            previous = model;
+            expected = TimeUtils.getNextTime(interval, model.getCandleOpenTime());
+            return model;
+        }
+    }
+
+    private static final class MergingIterator implements Iterator<CandleModel> {
+
+        private final Iterator<CandleModel> source;
+        private final BackDealInterval interval;
+
+        private CandleModel pending;
+
+        private MergingIterator(Iterator<CandleModel> source, BackDealInterval interval) {
+            this.source = source;
+            this.interval = interval;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !isNull(pending) || source.hasNext();
+        }
+
+        @Override
+        public CandleModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CandleModel first = isNull(pending) ? source.next() : pending;
+            pending = null;
+
+            final LocalDateTime openTime = TimeUtils.getNearestTimeBefore(interval, first.getCandleOpenTime());
+            final LocalDateTime nextTime = TimeUtils.getNextTime(interval, openTime);
+
+            CandleModel merged = first.toBuilder().candleOpenTime(openTime).build();
+            while (source.hasNext()) {
+                CandleModel model = source.next();
+                if (!model.getCandleOpenTime().isBefore(nextTime)) {
+                    pending = model;
+                    break;
+                }
+                merged.setCloseRate(model.getCloseRate());
+                merged.setHighRate(merged.getHighRate().max(model.getHighRate()));
+                merged.setLowRate(merged.getLowRate().min(model.getLowRate()));
+                merged.setVolume(merged.getVolume().add(model.getVolume()));
+            }
+            return merged;
+        }
+    }
+}
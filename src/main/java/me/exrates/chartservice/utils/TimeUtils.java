@@ -0,0 +1,55 @@
+package me.exrates.chartservice.utils;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.exceptions.UnsupportedIntervalTypeException;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+public final class TimeUtils {
+
+    private static final LocalDate FIRST_MONDAY = LocalDate.of(1970, 1, 5);
+
+    private TimeUtils() {
+    }
+
+    /**
+     * Returns the open time of the candle of the given interval that contains the given date time.
+     * Multi-day, multi-week and multi-month intervals are aligned from the epoch, weeks start on Monday.
+     */
+    public static LocalDateTime getNearestTimeBefore(BackDealInterval interval, LocalDateTime dateTime) {
+        final int value = interval.getIntervalValue();
+
+        switch (interval.getIntervalType()) {
+            case MINUTE:
+                return dateTime.truncatedTo(ChronoUnit.HOURS)
+                        .plusMinutes(dateTime.getMinute() - dateTime.getMinute() % value);
+            case HOUR:
+                return dateTime.truncatedTo(ChronoUnit.DAYS)
+                        .plusHours(dateTime.getHour() - dateTime.getHour() % value);
+            case DAY:
+                long epochDay = dateTime.toLocalDate().toEpochDay();
+                return LocalDate.ofEpochDay(epochDay - Math.floorMod(epochDay, value)).atStartOfDay();
+            case WEEK:
+                LocalDate monday = dateTime.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                long weeks = ChronoUnit.WEEKS.between(FIRST_MONDAY, monday);
+                return monday.minusWeeks(Math.floorMod(weeks, value)).atStartOfDay();
+            case MONTH:
+                LocalDate firstDay = dateTime.toLocalDate().withDayOfMonth(1);
+                long months = firstDay.getYear() * 12L + firstDay.getMonthValue() - 1;
+                return firstDay.minusMonths(Math.floorMod(months, value)).atStartOfDay();
+            default:
+                throw new UnsupportedIntervalTypeException(interval.getInterval());
+        }
+    }
+
+    /**
+     * Returns the open time of the candle following the candle opened at the given time.
+     */
+    public static LocalDateTime getNextTime(BackDealInterval interval, LocalDateTime openTime) {
+        return openTime.plus(interval.getIntervalValue(), interval.getIntervalType().getCorrespondingTimeUnit());
+    }
+}
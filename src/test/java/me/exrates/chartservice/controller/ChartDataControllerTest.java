@@ -0,0 +1,83 @@
+package me.exrates.chartservice.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.exceptions.ElasticsearchUnavailableException;
+import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import me.exrates.chartservice.services.PairOwnershipService;
+import me.exrates.chartservice.services.RedisProcessingService;
+import me.exrates.chartservice.services.TickerService;
+import me.exrates.chartservice.services.TradeDataService;
+import me.exrates.chartservice.services.impl.CandleCacheServiceImpl;
+import me.exrates.chartservice.services.impl.ChartDataServiceImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ChartDataControllerTest {
+
+    private ElasticsearchProcessingService elasticsearchProcessingService;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        elasticsearchProcessingService = mock(ElasticsearchProcessingService.class);
+        when(elasticsearchProcessingService.isAvailable()).thenReturn(false);
+        when(elasticsearchProcessingService.getStreamByQuery(any(), any(), anyString(), any()))
+                .thenReturn(Stream.<CandleModel>generate(() -> {
+                    throw new ElasticsearchUnavailableException("Elasticsearch cluster is degraded");
+                }));
+
+        PairOwnershipService pairOwnershipService = mock(PairOwnershipService.class);
+        when(pairOwnershipService.isOwned(anyString())).thenReturn(true);
+
+        CandleCacheServiceImpl candleCacheService = new CandleCacheServiceImpl(elasticsearchProcessingService,
+                mock(RedisProcessingService.class), pairOwnershipService, new SimpleMeterRegistry(), 100, 10);
+        ChartDataServiceImpl chartDataService = new ChartDataServiceImpl(candleCacheService,
+                mock(TradeDataService.class), elasticsearchProcessingService, 100);
+
+        mockMvc = MockMvcBuilders.standaloneSetup(new ChartDataController(new MockEnvironment(), chartDataService,
+                mock(TickerService.class), new ObjectMapper(), new ObjectMapper(new CBORFactory()),
+                new ObjectMapper(new SmileFactory()), 300000, 2000, 1000)).build();
+    }
+
+    @Test
+    public void settledRangeNotCachedWhileDegraded() throws Exception {
+        mockMvc.perform(get("/data/range")
+                .param("pair", "BTC/USD")
+                .param("interval", "30 MINUTE")
+                .param("from", "2019-01-01T00:00:00")
+                .param("to", "2019-01-02T00:00:00"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().doesNotExist(HttpHeaders.CACHE_CONTROL))
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void streamedRangeNotCachedWhileDegraded() throws Exception {
+        mockMvc.perform(get("/data/range")
+                .param("pair", "BTC/USD")
+                .param("interval", "30 MINUTE")
+                .param("from", "2019-01-01T00:00:00")
+                .param("to", "2019-02-01T00:00:00"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().doesNotExist(HttpHeaders.CACHE_CONTROL))
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+}
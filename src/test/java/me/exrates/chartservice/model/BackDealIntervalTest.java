@@ -0,0 +1,45 @@
+package me.exrates.chartservice.model;
+
+import me.exrates.chartservice.model.enums.IntervalType;
+import me.exrates.chartservice.model.exceptions.UnsupportedIntervalTypeException;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BackDealIntervalTest {
+
+    @Test
+    public void registry() {
+        List<BackDealInterval> supported = BackDealInterval.getSupported();
+
+        assertEquals(10, supported.size());
+        for (int i = 0; i < supported.size(); i++) {
+            BackDealInterval interval = supported.get(i);
+
+            assertEquals(i, interval.getOrdinal());
+            assertSame(interval, BackDealInterval.parse(interval.getInterval()));
+            assertSame(interval, BackDealInterval.of(interval.getIntervalValue(), interval.getIntervalType()));
+            assertEquals(i, new BackDealInterval(interval.getIntervalValue(), interval.getIntervalType()).getOrdinal());
+        }
+        assertEquals("30_minute", BackDealInterval.of(30, IntervalType.MINUTE).getKey());
+        assertEquals(-1, new BackDealInterval(5, IntervalType.MINUTE).getOrdinal());
+    }
+
+    @Test
+    public void parseLenient() {
+        assertSame(BackDealInterval.of(4, IntervalType.HOUR), BackDealInterval.parse(" 4  hour "));
+    }
+
+    @Test(expected = UnsupportedIntervalTypeException.class)
+    public void parseUnsupported() {
+        BackDealInterval.parse("5 MINUTE");
+    }
+
+    @Test(expected = UnsupportedIntervalTypeException.class)
+    public void parseMalformed() {
+        BackDealInterval.parse("MINUTE");
+    }
+}
@@ -0,0 +1,81 @@
+package me.exrates.chartservice.model;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CandleSeriesTest {
+
+    private static final LocalDateTime OPEN_TIME = LocalDateTime.of(2019, 7, 18, 13, 30);
+
+    @Test
+    public void mergeAndRange() {
+        CandleSeries first = CandleSeries.of(Arrays.asList(candle(OPEN_TIME, "1.5"), candle(OPEN_TIME.plusMinutes(30), "2")));
+        CandleSeries second = CandleSeries.of(Arrays.asList(candle(OPEN_TIME.plusMinutes(30), "3.25"), candle(OPEN_TIME.plusMinutes(60), "4")));
+
+        CandleSeries merged = first.merge(second);
+
+        assertEquals(3, merged.size());
+
+        List<CandleModel> models = merged.toCandleModels(
+                Timestamp.valueOf(OPEN_TIME.plusMinutes(30)).getTime(),
+                Timestamp.valueOf(OPEN_TIME.plusMinutes(90)).getTime());
+
+        assertEquals(2, models.size());
+        assertEquals(0, new BigDecimal("3.25").compareTo(models.get(0).getCloseRate()));
+        assertEquals(OPEN_TIME.plusMinutes(60), models.get(1).getCandleOpenTime());
+        assertEquals(1, merged.tail(1).size());
+    }
+
+    @Test
+    public void applyTrades() {
+        FixedPointCandle candle = new FixedPointCandle(FixedPointCandle.DEFAULT_SCALE);
+        candle.open(Timestamp.valueOf(OPEN_TIME).getTime(), mantissa("10"), mantissa("1"));
+        candle.apply(mantissa("12.5"), mantissa("0.5"));
+        candle.apply(mantissa("9"), mantissa("2"));
+
+        CandleModel model = candle.toCandleModel();
+
+        assertEquals(0, new BigDecimal("10").compareTo(model.getOpenRate()));
+        assertEquals(0, new BigDecimal("12.5").compareTo(model.getHighRate()));
+        assertEquals(0, new BigDecimal("9").compareTo(model.getLowRate()));
+        assertEquals(0, new BigDecimal("9").compareTo(model.getCloseRate()));
+        assertEquals(0, new BigDecimal("3.5").compareTo(model.getVolume()));
+        assertEquals(OPEN_TIME, model.getCandleOpenTime());
+    }
+
+    @Test
+    public void keepAllDigits() {
+        CandleSeries first = CandleSeries.of(Arrays.asList(candle(OPEN_TIME, "1.123456789")));
+        CandleSeries second = CandleSeries.of(Arrays.asList(candle(OPEN_TIME.plusMinutes(30), "0.000000001")));
+
+        List<CandleModel> models = CandleSeries.empty().merge(first).merge(second).toCandleModels(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertEquals(2, models.size());
+        assertEquals(0, new BigDecimal("1.123456789").compareTo(models.get(0).getOpenRate()));
+        assertEquals(0, new BigDecimal("0.000000001").compareTo(models.get(1).getOpenRate()));
+    }
+
+    private static long mantissa(String value) {
+        return FixedPointCandle.toMantissa(new BigDecimal(value), FixedPointCandle.DEFAULT_SCALE);
+    }
+
+    private static CandleModel candle(LocalDateTime openTime, String rate) {
+        BigDecimal value = new BigDecimal(rate);
+
+        return CandleModel.builder()
+                .openRate(value)
+                .closeRate(value)
+                .highRate(value)
+                .lowRate(value)
+                .volume(BigDecimal.ONE)
+                .candleOpenTime(openTime)
+                .build();
+    }
+}
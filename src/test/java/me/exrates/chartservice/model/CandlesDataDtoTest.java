@@ -0,0 +1,50 @@
+package me.exrates.chartservice.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.exrates.chartservice.model.enums.IntervalType;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CandlesDataDtoTest {
+
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        CandlesDataDto dto = new CandlesDataDto();
+        dto.setPairName("BTC/USD");
+        dto.setInterval(BackDealInterval.of(30, IntervalType.MINUTE));
+        dto.setCandleModels(Collections.singletonList(CandleModel.builder()
+                .openRate(BigDecimal.TEN)
+                .closeRate(BigDecimal.ONE)
+                .highRate(BigDecimal.TEN)
+                .lowRate(BigDecimal.ONE)
+                .volume(new BigDecimal("2.5"))
+                .candleOpenTime(LocalDateTime.of(2019, 7, 18, 13, 30))
+                .build()));
+
+        CandlesDataDto read = mapper.readValue(mapper.writeValueAsString(dto), CandlesDataDto.class);
+
+        assertEquals("BTC/USD", read.getPairName());
+        assertSame(dto.getInterval(), read.getInterval());
+        assertEquals(1, read.getCandleModels().size());
+        assertEquals(0, new BigDecimal("2.5").compareTo(read.getCandleModels().get(0).getVolume()));
+        assertEquals(LocalDateTime.of(2019, 7, 18, 13, 30), read.getCandleModels().get(0).getCandleOpenTime());
+    }
+
+    @Test
+    public void readMultipleAndName() throws Exception {
+        BackDealInterval multiple = mapper.readValue("{\"intervalValue\":2,\"intervalType\":\"MONTH\",\"interval\":\"2 MONTH\"}", BackDealInterval.class);
+
+        assertEquals(2, (int) multiple.getIntervalValue());
+        assertEquals(IntervalType.MONTH, multiple.getIntervalType());
+        assertEquals(-1, multiple.getOrdinal());
+        assertSame(BackDealInterval.of(4, IntervalType.HOUR), mapper.readValue("{\"interval\":\"4 HOUR\"}", BackDealInterval.class));
+    }
+}
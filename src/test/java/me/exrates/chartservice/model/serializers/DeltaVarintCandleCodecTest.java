@@ -0,0 +1,66 @@
+package me.exrates.chartservice.model.serializers;
+
+import me.exrates.chartservice.model.CandleModel;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaVarintCandleCodecTest {
+
+    private final CandleCodec codec = new DeltaVarintCandleCodec();
+
+    @Test
+    public void roundTrip() {
+        List<CandleModel> models = Arrays.asList(
+                candle(LocalDateTime.of(2019, 7, 18, 13, 0), "9871.12345678", "9902.5", "9950.00000001", "9850.1", "152.34"),
+                candle(LocalDateTime.of(2019, 7, 18, 13, 30), "9902.5", "9800", "9910", "9790.25", "0"),
+                candle(LocalDateTime.of(2019, 7, 18, 14, 0), "1E+30", "0.1", "1E+30", "0.1", "123456789012345678901234567890.5"));
+
+        List<CandleModel> decoded = codec.decode(codec.encode(models));
+
+        assertEquals(models.size(), decoded.size());
+        for (int i = 0; i < models.size(); i++) {
+            assertCandle(models.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void compact() {
+        CandleModel model = candle(LocalDateTime.of(2019, 7, 18, 13, 0), "9871.12345678", "9902.5", "9950.00000001", "9850.1", "152.34");
+
+        assertTrue(codec.encode(model).length < CandleModelBinarySerializer.serialize(model).length);
+    }
+
+    @Test
+    public void decodeLegacy() {
+        CandleModel model = candle(LocalDateTime.of(2019, 7, 18, 13, 0), "9871.12345678", "9902.5", "9950.00000001", "9850.1", "152.34");
+
+        assertCandle(model, codec.decodeOne(CandleModelBinarySerializer.serialize(model)));
+    }
+
+    private static CandleModel candle(LocalDateTime openTime, String open, String close, String high, String low, String volume) {
+        return CandleModel.builder()
+                .candleOpenTime(openTime)
+                .openRate(new BigDecimal(open))
+                .closeRate(new BigDecimal(close))
+                .highRate(new BigDecimal(high))
+                .lowRate(new BigDecimal(low))
+                .volume(new BigDecimal(volume))
+                .build();
+    }
+
+    private static void assertCandle(CandleModel expected, CandleModel actual) {
+        assertEquals(expected.getCandleOpenTime(), actual.getCandleOpenTime());
+        assertEquals(0, expected.getOpenRate().compareTo(actual.getOpenRate()));
+        assertEquals(0, expected.getCloseRate().compareTo(actual.getCloseRate()));
+        assertEquals(0, expected.getHighRate().compareTo(actual.getHighRate()));
+        assertEquals(0, expected.getLowRate().compareTo(actual.getLowRate()));
+        assertEquals(0, expected.getVolume().compareTo(actual.getVolume()));
+    }
+}
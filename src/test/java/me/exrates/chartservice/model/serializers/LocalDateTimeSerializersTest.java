@@ -0,0 +1,44 @@
+package me.exrates.chartservice.model.serializers;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalDateTimeSerializersTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2019, 7, 18, 13, 47, 12);
+
+    @Test
+    public void parse() {
+        assertEquals(TIME, LocalDateTimeDeserializer.parse("2019-07-18T13:47:12"));
+        assertEquals(TIME, LocalDateTimeDeserializer.parse("2019-07-18 13:47:12"));
+        assertEquals(TIME, LocalDateTimeDeserializer.parse("2019-07-18T13:47:12Z"));
+        assertEquals(TIME, LocalDateTimeDeserializer.parse("\"2019-07-18 13:47:12\""));
+        assertEquals(TIME.withSecond(0), LocalDateTimeDeserializer.parse("2019-07-18T13:47"));
+        assertEquals(TIME.withNano(120_000_000), LocalDateTimeDeserializer.parse("2019-07-18 13:47:12.12"));
+        assertEquals(TIME.withNano(123_456_789), LocalDateTimeDeserializer.parse("2019-07-18T13:47:12.123456789Z"));
+        assertEquals(LocalDateTime.of(2020, 2, 29, 0, 0), LocalDateTimeDeserializer.parse("2020-02-29 00:00:00"));
+        assertEquals(LocalDateTime.of(12019, 7, 18, 13, 47), LocalDateTimeDeserializer.parse("+12019-07-18T13:47"));
+    }
+
+    @Test
+    public void format() {
+        assertFormat(TIME);
+        assertFormat(TIME.withSecond(0));
+        assertFormat(TIME.withNano(120_000_000));
+        assertFormat(TIME.withNano(123_456_789));
+        assertFormat(TIME.withNano(1000));
+        assertFormat(LocalDateTime.of(1, 1, 1, 0, 0));
+    }
+
+    private static void assertFormat(LocalDateTime time) {
+        char[] buffer = new char[29];
+        int length = LocalDateTimeSerializer.format(time, buffer);
+
+        assertEquals(time.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME).replace('T', ' '), new String(buffer, 0, length));
+        assertEquals(time, LocalDateTimeDeserializer.parse(new String(buffer, 0, length)));
+    }
+}
@@ -0,0 +1,156 @@
+package me.exrates.chartservice.services.impl;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.model.enums.IntervalType;
+import me.exrates.chartservice.model.serializers.DeltaVarintCandleCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CandleJournalTest {
+
+    private static final BackDealInterval MINUTE_5 = new BackDealInterval(5, IntervalType.MINUTE);
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2019, 7, 18, 10, 1);
+
+    @Test
+    public void recoverFromSnapshotAndSegments() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        DeltaVarintCandleCodec codec = new DeltaVarintCandleCodec();
+
+        CandleJournal journal = new CandleJournal(true, directory.toString(), 2);
+        journal.recover((pairName, state) -> { }, dto -> { });
+
+        PairCandles candles = new PairCandles(Collections.singletonList(MINUTE_5), Collections.emptyMap());
+        for (TradeDataDto dto : new TradeDataDto[]{trade("BTC/USD", 1, "10.5"), trade("ETH/USD", 2, "0.25")}) {
+            journal.append(dto);
+            if (dto.getPairName().equals("BTC/USD")) {
+                candles.apply(dto);
+            }
+        }
+
+        Path segment = journal.roll();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        candles.writeTo(new DataOutputStream(bytes), codec);
+        Map<String, byte[]> states = new HashMap<>();
+        states.put("BTC/USD", bytes.toByteArray());
+        Map<String, Long> sequences = new HashMap<>();
+        sequences.put("BTC/USD", journal.getLastSequence("BTC/USD"));
+        journal.writeSnapshot(segment, states, sequences);
+
+        journal.append(trade("BTC/USD", 3, "12"));
+        journal.append(trade("BTC/USD", 4, "9.12345678"));
+        journal.append(trade("BTC/USD", 5, "11"));
+
+        CandleJournal recovered = new CandleJournal(true, directory.toString(), 2);
+        Map<String, PairCandles> restored = new HashMap<>();
+        List<Integer> replayed = new ArrayList<>();
+        recovered.recover((pairName, state) -> {
+            PairCandles restoredCandles = new PairCandles(Collections.singletonList(MINUTE_5), Collections.emptyMap());
+            try {
+                restoredCandles.readFrom(new DataInputStream(new ByteArrayInputStream(state)), codec);
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+            restored.put(pairName, restoredCandles);
+        }, dto -> {
+            replayed.add(dto.getOrderId());
+            restored.get(dto.getPairName()).apply(dto);
+        });
+
+        assertEquals(Collections.singleton("BTC/USD"), restored.keySet());
+        assertEquals(Arrays.asList(3, 4, 5), replayed);
+        assertEquals(5L, recovered.getLastSequence("BTC/USD"));
+
+        CandleModel open = restored.get("BTC/USD").getOpenCandle(0);
+        assertEquals(TIME.withMinute(0), open.getCandleOpenTime());
+        assertEquals(0, new BigDecimal("10.5").compareTo(open.getOpenRate()));
+        assertEquals(0, new BigDecimal("12").compareTo(open.getHighRate()));
+        assertEquals(0, new BigDecimal("9.12345678").compareTo(open.getLowRate()));
+        assertEquals(0, new BigDecimal("11").compareTo(open.getCloseRate()));
+        assertEquals(0, new BigDecimal("4").compareTo(open.getVolume()));
+    }
+
+    @Test
+    public void concurrentAppends() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+        final int pairs = 4;
+        final int trades = 500;
+
+        CandleJournal journal = new CandleJournal(true, directory.toString(), 64);
+        journal.recover((pairName, state) -> { }, dto -> { });
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            final String pairName = "PAIR" + i + "/USD";
+            workers.add(new Thread(() -> {
+                for (int orderId = 1; orderId <= trades; orderId++) {
+                    journal.append(trade(pairName, orderId, "1"));
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (int i = 0; i < 10; i++) {
+            journal.roll();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Map<String, List<Integer>> replayed = new HashMap<>();
+        new CandleJournal(true, directory.toString(), 64).recover((pairName, state) -> { },
+                dto -> replayed.computeIfAbsent(dto.getPairName(), pairName -> new ArrayList<>()).add(dto.getOrderId()));
+
+        assertEquals(pairs, replayed.size());
+        for (List<Integer> orderIds : replayed.values()) {
+            assertEquals(trades, orderIds.size());
+            for (int i = 0; i < trades; i++) {
+                assertEquals(i + 1, (int) orderIds.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void keepAllDigits() throws Exception {
+        Path directory = Files.createTempDirectory("journal");
+
+        CandleJournal journal = new CandleJournal(true, directory.toString(), 4);
+        journal.recover((pairName, state) -> { }, dto -> { });
+        journal.append(trade("BTC/USD", 1, "0.000000001"));
+        journal.append(trade("BTC/USD", 2, "1.123456789"));
+
+        List<BigDecimal> rates = new ArrayList<>();
+        new CandleJournal(true, directory.toString(), 4).recover((pairName, state) -> { }, dto -> rates.add(dto.getExrate()));
+
+        assertEquals(2, rates.size());
+        assertEquals(0, new BigDecimal("0.000000001").compareTo(rates.get(0)));
+        assertEquals(0, new BigDecimal("1.123456789").compareTo(rates.get(1)));
+    }
+
+    private static TradeDataDto trade(String pairName, int orderId, String rate) {
+        TradeDataDto dto = new TradeDataDto();
+        dto.setPairName(pairName);
+        dto.setOrderId(orderId);
+        dto.setExrate(new BigDecimal(rate));
+        dto.setAmountBase(BigDecimal.ONE);
+        dto.setTradeDate(TIME.plusSeconds(orderId));
+        return dto;
+    }
+}
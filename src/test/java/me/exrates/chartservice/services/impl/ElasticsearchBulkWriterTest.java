@@ -0,0 +1,69 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ElasticsearchBulkWriterTest {
+
+    @Test
+    public void writtenThroughOnlyOnceAcknowledged() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+
+        Response acknowledged = mock(Response.class);
+        when(acknowledged.getEntity()).thenReturn(new NStringEntity("{\"took\":1,\"errors\":false,\"items\":[]}", ContentType.APPLICATION_JSON));
+
+        RestClient lowLevelClient = mock(RestClient.class);
+        when(lowLevelClient.performRequest(any(Request.class)))
+                .thenAnswer(invocation -> {
+                    sent.countDown();
+                    answer.await(5, TimeUnit.SECONDS);
+                    throw new IOException("Connection reset");
+                })
+                .thenReturn(acknowledged);
+
+        ElasticsearchBulkWriter writer = new ElasticsearchBulkWriter(new Client(lowLevelClient),
+                new ElasticsearchCircuitBreaker(new SimpleMeterRegistry(), 5, 2000, 10000), new SimpleMeterRegistry(),
+                500, 20000, 0, 0, false, 2048);
+
+        writer.write("candles", "1", "{}");
+        final long sequence = writer.getLastSequence();
+        assertFalse(writer.isWrittenThrough(sequence));
+
+        Thread flushing = new Thread(writer::flush);
+        flushing.start();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertFalse(writer.isWrittenThrough(sequence));
+
+        answer.countDown();
+        flushing.join();
+        assertFalse(writer.isWrittenThrough(sequence));
+
+        writer.flush();
+        assertTrue(writer.isWrittenThrough(sequence));
+    }
+
+    private static final class Client extends RestHighLevelClient {
+
+        private Client(RestClient lowLevelClient) {
+            super(lowLevelClient, RestClient::close, Collections.emptyList());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ElasticsearchCircuitBreakerTest {
+
+    @Test
+    public void opensOnFailuresAndClosesAfterProbe() throws Exception {
+        ElasticsearchCircuitBreaker breaker = new ElasticsearchCircuitBreaker(new SimpleMeterRegistry(), 3, 100, 50);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.isDegraded());
+
+        breaker.onFailure();
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(breaker.isDegraded());
+        assertFalse(breaker.allowRequest());
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        assertFalse(breaker.isDegraded());
+        assertTrue(breaker.allowRequest());
+    }
+}
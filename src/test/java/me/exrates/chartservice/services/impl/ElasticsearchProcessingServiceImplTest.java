@@ -2,6 +2,9 @@ package me.exrates.chartservice.services.impl;
 
 import me.exrates.chartservice.model.CandleModel;
 import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,7 +16,6 @@ import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -33,14 +35,18 @@ public class ElasticsearchProcessingServiceImplTest {
     @Autowired
     private ElasticsearchProcessingService processingService;
 
+    @Autowired
+    private ElasticsearchBulkWriter bulkWriter;
+
+    @Autowired
+    private RestHighLevelClient client;
+
     @Test
     public void endToEnd() throws Exception {
         boolean exist = processingService.exist(BTC_USD, NOW);
 
         assertFalse(exist);
 
-        TimeUnit.SECONDS.sleep(1);
-
         CandleModel candleModel = CandleModel.builder()
                 .openRate(BigDecimal.TEN)
                 .closeRate(BigDecimal.TEN)
@@ -52,14 +58,12 @@ public class ElasticsearchProcessingServiceImplTest {
 
         processingService.insert(candleModel, BTC_USD);
 
-        TimeUnit.SECONDS.sleep(1);
+        flush();
 
         exist = processingService.exist(BTC_USD, NOW);
 
         assertTrue(exist);
 
-        TimeUnit.SECONDS.sleep(1);
-
         CandleModel insertedCandleModel = processingService.get(BTC_USD, NOW);
 
         assertNotNull(insertedCandleModel);
@@ -71,8 +75,6 @@ public class ElasticsearchProcessingServiceImplTest {
         assertEquals(NOW, insertedCandleModel.getCandleOpenTime());
         assertEquals(Timestamp.valueOf(NOW).getTime(), insertedCandleModel.getTimeInMillis());
 
-        TimeUnit.SECONDS.sleep(1);
-
         candleModel = CandleModel.builder()
                 .openRate(BigDecimal.ZERO)
                 .closeRate(BigDecimal.TEN)
@@ -84,7 +86,7 @@ public class ElasticsearchProcessingServiceImplTest {
 
         processingService.update(candleModel, BTC_USD);
 
-        TimeUnit.SECONDS.sleep(1);
+        flush();
 
         CandleModel updatedCandleModel = processingService.get(BTC_USD, NOW);
 
@@ -97,16 +99,12 @@ public class ElasticsearchProcessingServiceImplTest {
         assertEquals(NOW, updatedCandleModel.getCandleOpenTime());
         assertEquals(Timestamp.valueOf(NOW).getTime(), updatedCandleModel.getTimeInMillis());
 
-        TimeUnit.SECONDS.sleep(1);
-
         List<CandleModel> models = processingService.getByQuery(FROM_DATE, TO_DATE, BTC_USD);
 
         assertNotNull(models);
         assertFalse(models.isEmpty());
         assertEquals(1, models.size());
 
-        TimeUnit.SECONDS.sleep(1);
-
         candleModel = CandleModel.builder()
                 .openRate(BigDecimal.TEN)
                 .closeRate(BigDecimal.TEN)
@@ -118,7 +116,7 @@ public class ElasticsearchProcessingServiceImplTest {
 
         processingService.insert(candleModel, BTC_USD);
 
-        TimeUnit.SECONDS.sleep(1);
+        flush();
 
         candleModel = CandleModel.builder()
                 .openRate(BigDecimal.TEN)
@@ -131,7 +129,7 @@ public class ElasticsearchProcessingServiceImplTest {
 
         processingService.insert(candleModel, BTC_USD);
 
-        TimeUnit.SECONDS.sleep(1);
+        flush();
 
         models = processingService.getByQuery(FROM_DATE, TO_DATE, BTC_USD);
 
@@ -139,10 +137,18 @@ public class ElasticsearchProcessingServiceImplTest {
         assertFalse(models.isEmpty());
         assertEquals(2, models.size());
 
-        TimeUnit.SECONDS.sleep(1);
-
         long deletedCount = processingService.deleteAll();
 
         assertEquals(3L, deletedCount);
     }
-}
\ No newline at end of file
+
+    /**
+     * Sends the buffered writes and makes them visible to searches, so reads do not depend on the flush interval
+     * of the bulk writer or the refresh interval of the indices.
+     */
+    private void flush() throws Exception {
+        bulkWriter.flush();
+        assertTrue(bulkWriter.isWrittenThrough(bulkWriter.getLastSequence()));
+        client.indices().refresh(new RefreshRequest(), RequestOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,45 @@
+package me.exrates.chartservice.services.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrderIdFilterTest {
+
+    @Test
+    public void rollingWindow() {
+        OrderIdFilter filter = new OrderIdFilter(128);
+
+        assertTrue(filter.add(1000));
+        assertTrue(filter.add(990));
+        assertFalse(filter.add(990));
+        assertFalse(filter.contains(995));
+
+        assertTrue(filter.add(1100));
+        assertTrue(filter.contains(1000));
+        assertFalse(filter.contains(1099));
+
+        assertTrue(filter.add(1300));
+        assertFalse(filter.contains(1299));
+        assertTrue(filter.add(1299));
+    }
+
+    @Test
+    public void olderIds() {
+        OrderIdFilter filter = new OrderIdFilter(128);
+        assertTrue(filter.add(1000));
+
+        assertFalse(filter.contains(10));
+        assertTrue(filter.add(10));
+        assertTrue(filter.contains(10));
+        assertFalse(filter.add(10));
+
+        for (int orderId = 100; orderId < 164; orderId++) {
+            assertTrue(filter.add(orderId));
+        }
+        assertFalse(filter.contains(10));
+        assertTrue(filter.add(10));
+        assertFalse(filter.add(163));
+    }
+}
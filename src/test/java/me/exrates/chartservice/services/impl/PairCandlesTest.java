@@ -0,0 +1,198 @@
+package me.exrates.chartservice.services.impl;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.model.enums.IntervalType;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PairCandlesTest {
+
+    private static final BackDealInterval MINUTE_30 = new BackDealInterval(30, IntervalType.MINUTE);
+    private static final BackDealInterval HOUR_1 = new BackDealInterval(1, IntervalType.HOUR);
+    private static final BackDealInterval HOUR_4 = new BackDealInterval(4, IntervalType.HOUR);
+    private static final BackDealInterval DAY_1 = new BackDealInterval(1, IntervalType.DAY);
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2019, 7, 18, 0, 0);
+
+    @Test
+    public void rollup() {
+        Map<BackDealInterval, BackDealInterval> sources = new HashMap<>();
+        sources.put(HOUR_1, MINUTE_30);
+        sources.put(HOUR_4, HOUR_1);
+        sources.put(DAY_1, HOUR_4);
+
+        PairCandles candles = new PairCandles(Arrays.asList(MINUTE_30, HOUR_1, HOUR_4, DAY_1), sources);
+
+        candles.apply(trade(DAY.plusMinutes(13 * 60 + 10), "10"));
+        candles.apply(trade(DAY.plusMinutes(13 * 60 + 40), "12"));
+        candles.apply(trade(DAY.plusMinutes(14 * 60 + 5), "8"));
+
+        CandleModel hour = candles.getOpenCandle(1);
+        assertEquals(DAY.plusHours(14), hour.getCandleOpenTime());
+        assertEquals(0, new BigDecimal("8").compareTo(hour.getOpenRate()));
+
+        assertCandle(candles.getOpenCandle(2), DAY.plusHours(12));
+        assertCandle(candles.getOpenCandle(3), DAY);
+
+        List<PairCandles.PendingCandle> pending = candles.drain();
+        assertTrue(pending.stream().anyMatch(candle -> candle.closed && candle.interval.equals(HOUR_1)
+                && candle.model.getVolume().compareTo(new BigDecimal("2")) == 0));
+    }
+
+    @Test
+    public void lateAndDuplicateTrades() {
+        Map<BackDealInterval, BackDealInterval> sources = new HashMap<>();
+        sources.put(HOUR_1, MINUTE_30);
+        sources.put(HOUR_4, HOUR_1);
+        sources.put(DAY_1, HOUR_4);
+
+        PairCandles candles = new PairCandles(Arrays.asList(MINUTE_30, HOUR_1, HOUR_4, DAY_1), sources, 2 * 60 * 60 * 1000L, 1024);
+
+        candles.apply(trade(1, DAY.plusMinutes(13 * 60 + 10), "10"));
+        candles.apply(trade(2, DAY.plusMinutes(13 * 60 + 40), "12"));
+        candles.apply(trade(3, DAY.plusMinutes(14 * 60 + 5), "8"));
+        candles.drain();
+
+        assertEquals(PairCandles.Outcome.REVISED, candles.apply(trade(4, DAY.plusMinutes(13 * 60 + 20), "15")));
+        List<PairCandles.PendingCandle> pending = candles.drain();
+        assertRevised(pending, MINUTE_30, DAY.plusHours(13), "10", "15", "15", "2");
+        assertRevised(pending, HOUR_1, DAY.plusHours(13), "10", "15", "12", "3");
+
+        CandleModel fourHours = candles.getOpenCandle(2);
+        assertEquals(0, new BigDecimal("15").compareTo(fourHours.getHighRate()));
+        assertEquals(0, new BigDecimal("4").compareTo(fourHours.getVolume()));
+
+        assertEquals(PairCandles.Outcome.REVISED, candles.apply(trade(5, DAY.plusMinutes(12 * 60 + 40), "5")));
+        pending = candles.drain();
+        assertRevised(pending, MINUTE_30, DAY.plusMinutes(12 * 60 + 30), "5", "5", "5", "1");
+        assertRevised(pending, HOUR_1, DAY.plusHours(12), "5", "5", "5", "1");
+
+        CandleModel day = candles.getOpenCandle(3);
+        assertEquals(0, new BigDecimal("5").compareTo(day.getOpenRate()));
+        assertEquals(0, new BigDecimal("5").compareTo(day.getLowRate()));
+        assertEquals(0, new BigDecimal("8").compareTo(day.getCloseRate()));
+        assertEquals(0, new BigDecimal("5").compareTo(day.getVolume()));
+
+        assertTrue(candles.isDuplicate(trade(2, DAY.plusMinutes(13 * 60 + 40), "12")));
+        assertEquals(PairCandles.Outcome.DUPLICATE, candles.apply(trade(2, DAY.plusMinutes(13 * 60 + 40), "12")));
+        assertEquals(PairCandles.Outcome.TOO_LATE, candles.apply(trade(6, DAY.plusHours(12), "20")));
+        assertEquals(0, new BigDecimal("5").compareTo(candles.getOpenCandle(3).getVolume()));
+    }
+
+    @Test
+    public void rollQuietCandles() {
+        Map<BackDealInterval, BackDealInterval> sources = new HashMap<>();
+        sources.put(HOUR_1, MINUTE_30);
+        sources.put(HOUR_4, HOUR_1);
+        sources.put(DAY_1, HOUR_4);
+
+        PairCandles candles = new PairCandles(Arrays.asList(MINUTE_30, HOUR_1, HOUR_4, DAY_1), sources, 2 * 60 * 60 * 1000L, 1024);
+
+        candles.apply(trade(1, DAY.plusMinutes(13 * 60 + 10), "10"));
+        candles.apply(trade(2, DAY.plusMinutes(13 * 60 + 40), "12"));
+        candles.drain();
+
+        candles.roll(millis(DAY.plusMinutes(13 * 60 + 50)));
+        assertEquals(DAY.plusMinutes(13 * 60 + 30), candles.getOpenCandle(0).getCandleOpenTime());
+        assertTrue(candles.drain().stream().noneMatch(candle -> candle.closed));
+
+        candles.roll(millis(DAY.plusMinutes(15 * 60 + 10)));
+        assertNull(candles.getOpenCandle(0));
+        assertNull(candles.getOpenCandle(1));
+        assertEquals(0, new BigDecimal("2").compareTo(candles.getOpenCandle(2).getVolume()));
+        List<PairCandles.PendingCandle> pending = candles.drain();
+        assertRevised(pending, MINUTE_30, DAY.plusMinutes(13 * 60 + 30), "12", "12", "12", "1");
+        assertRevised(pending, HOUR_1, DAY.plusHours(13), "10", "12", "12", "2");
+
+        assertEquals(PairCandles.Outcome.REVISED, candles.apply(trade(3, DAY.plusMinutes(14 * 60 + 20), "20")));
+        pending = candles.drain();
+        assertRevised(pending, MINUTE_30, DAY.plusHours(14), "20", "20", "20", "1");
+        assertRevised(pending, HOUR_1, DAY.plusHours(14), "20", "20", "20", "1");
+        assertEquals(0, new BigDecimal("3").compareTo(candles.getOpenCandle(3).getVolume()));
+
+        assertEquals(PairCandles.Outcome.APPLIED, candles.apply(trade(4, DAY.plusMinutes(15 * 60 + 5), "9")));
+        assertEquals(DAY.plusHours(15), candles.getOpenCandle(0).getCandleOpenTime());
+
+        candles.roll(millis(DAY.plusHours(17)));
+        assertRevised(candles.drain(), HOUR_4, DAY.plusHours(12), "10", "20", "9", "4");
+        assertEquals(0, new BigDecimal("4").compareTo(candles.getOpenCandle(3).getVolume()));
+    }
+
+    private static long millis(LocalDateTime time) {
+        return Timestamp.valueOf(time).getTime();
+    }
+
+    private static void assertRevised(List<PairCandles.PendingCandle> pending, BackDealInterval interval, LocalDateTime openTime,
+                                      String open, String high, String close, String volume) {
+        CandleModel model = pending.stream()
+                .filter(candle -> candle.closed && candle.interval.equals(interval) && candle.model.getCandleOpenTime().equals(openTime))
+                .findFirst()
+                .orElseThrow(AssertionError::new)
+                .model;
+        assertEquals(0, new BigDecimal(open).compareTo(model.getOpenRate()));
+        assertEquals(0, new BigDecimal(high).compareTo(model.getHighRate()));
+        assertEquals(0, new BigDecimal(close).compareTo(model.getCloseRate()));
+        assertEquals(0, new BigDecimal(volume).compareTo(model.getVolume()));
+    }
+
+    @Test
+    public void raiseScaleForMoreDigits() {
+        PairCandles candles = new PairCandles(Arrays.asList(MINUTE_30, HOUR_1), Collections.singletonMap(HOUR_1, MINUTE_30));
+
+        assertEquals(PairCandles.Outcome.APPLIED, candles.apply(trade(DAY.plusMinutes(10), "1.123456789")));
+        assertEquals(PairCandles.Outcome.APPLIED, candles.apply(trade(DAY.plusMinutes(11), "0.000000001")));
+        assertEquals(PairCandles.Outcome.APPLIED, candles.apply(trade(DAY.plusMinutes(12), "2")));
+
+        CandleModel model = candles.getOpenCandle(1);
+        assertEquals(0, new BigDecimal("1.123456789").compareTo(model.getOpenRate()));
+        assertEquals(0, new BigDecimal("2").compareTo(model.getHighRate()));
+        assertEquals(0, new BigDecimal("0.000000001").compareTo(model.getLowRate()));
+        assertEquals(0, new BigDecimal("2").compareTo(model.getCloseRate()));
+        assertEquals(0, new BigDecimal("3").compareTo(model.getVolume()));
+
+        assertEquals(PairCandles.Outcome.APPLIED, candles.apply(trade(DAY.plusMinutes(13), "1234567890.5")));
+
+        model = candles.getOpenCandle(0);
+        assertEquals(0, new BigDecimal("1234567890.5").compareTo(model.getHighRate()));
+        assertEquals(0, new BigDecimal("1.123456789").compareTo(model.getOpenRate()));
+        assertEquals(0, new BigDecimal("4").compareTo(model.getVolume()));
+    }
+
+    private static void assertCandle(CandleModel model, LocalDateTime openTime) {
+        assertEquals(openTime, model.getCandleOpenTime());
+        assertEquals(0, new BigDecimal("10").compareTo(model.getOpenRate()));
+        assertEquals(0, new BigDecimal("12").compareTo(model.getHighRate()));
+        assertEquals(0, new BigDecimal("8").compareTo(model.getLowRate()));
+        assertEquals(0, new BigDecimal("8").compareTo(model.getCloseRate()));
+        assertEquals(0, new BigDecimal("3").compareTo(model.getVolume()));
+    }
+
+    private static TradeDataDto trade(int orderId, LocalDateTime tradeDate, String rate) {
+        TradeDataDto dto = trade(tradeDate, rate);
+        dto.setOrderId(orderId);
+        return dto;
+    }
+
+    private static TradeDataDto trade(LocalDateTime tradeDate, String rate) {
+        TradeDataDto dto = new TradeDataDto();
+        dto.setPairName("BTC/USD");
+        dto.setExrate(new BigDecimal(rate));
+        dto.setAmountBase(BigDecimal.ONE);
+        dto.setTradeDate(tradeDate);
+        return dto;
+    }
+}
@@ -0,0 +1,112 @@
+package me.exrates.chartservice.services.impl;
+
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TickerDto;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PairTickerTest {
+
+    private static final String PAIR = "BTC/USD";
+    private static final LocalDateTime NOW = LocalDateTime.of(2019, 7, 18, 12, 10);
+
+    @Test
+    public void slidingWindow() {
+        PairTicker ticker = new PairTicker();
+        assertNull(ticker.toTicker(PAIR, millis(NOW)));
+
+        ticker.apply(millis(NOW.minusHours(30)), new BigDecimal("50"), new BigDecimal("9"));
+        ticker.apply(millis(NOW.minusHours(20)), new BigDecimal("100"), new BigDecimal("1"));
+        ticker.apply(millis(NOW.minusHours(3)), new BigDecimal("130"), new BigDecimal("2"));
+        ticker.apply(millis(NOW.minusMinutes(5)), new BigDecimal("90"), new BigDecimal("0.5"));
+        ticker.apply(millis(NOW), new BigDecimal("110"), new BigDecimal("1.5"));
+        ticker.apply(millis(NOW.minusMinutes(2)), new BigDecimal("95"), new BigDecimal("1"));
+
+        TickerDto dto = ticker.toTicker(PAIR, millis(NOW));
+        assertEquals(0, new BigDecimal("110").compareTo(dto.getLastRate()));
+        assertEquals(0, new BigDecimal("100").compareTo(dto.getOpenRate()));
+        assertEquals(0, new BigDecimal("130").compareTo(dto.getHighRate()));
+        assertEquals(0, new BigDecimal("90").compareTo(dto.getLowRate()));
+        assertEquals(0, new BigDecimal("6").compareTo(dto.getVolume()));
+        assertEquals(new BigDecimal("10.00"), dto.getChangePercent());
+        assertEquals(NOW, dto.getLastTradeTime());
+
+        dto = ticker.toTicker(PAIR, millis(NOW.plusHours(5)));
+        assertEquals(0, new BigDecimal("130").compareTo(dto.getOpenRate()));
+        assertEquals(0, new BigDecimal("5").compareTo(dto.getVolume()));
+
+        dto = ticker.toTicker(PAIR, millis(NOW.plusHours(25)));
+        assertEquals(0, new BigDecimal("110").compareTo(dto.getHighRate()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(dto.getVolume()));
+        assertEquals(BigDecimal.ZERO, dto.getChangePercent());
+    }
+
+    @Test
+    public void warmUpKeepsLiveBuckets() {
+        PairTicker ticker = new PairTicker();
+        ticker.apply(millis(NOW), new BigDecimal("110"), new BigDecimal("1"));
+
+        ticker.warmUp(Arrays.asList(
+                candle(NOW.minusHours(10).withMinute(0), "100", "120", "3"),
+                candle(NOW.withMinute(0), "105", "105", "7")));
+
+        TickerDto dto = ticker.toTicker(PAIR, millis(NOW));
+        assertEquals(0, new BigDecimal("110").compareTo(dto.getLastRate()));
+        assertEquals(0, new BigDecimal("100").compareTo(dto.getOpenRate()));
+        assertEquals(0, new BigDecimal("120").compareTo(dto.getHighRate()));
+        assertEquals(0, new BigDecimal("4").compareTo(dto.getVolume()));
+    }
+
+    @Test
+    public void seedCurrentBucket() {
+        PairTicker ticker = new PairTicker();
+        ticker.apply(millis(NOW), new BigDecimal("110"), new BigDecimal("1"));
+
+        ticker.seed(candle(NOW.withMinute(0), "100", "110", "5"));
+
+        TickerDto dto = ticker.toTicker(PAIR, millis(NOW));
+        assertEquals(0, new BigDecimal("110").compareTo(dto.getLastRate()));
+        assertEquals(0, new BigDecimal("100").compareTo(dto.getOpenRate()));
+        assertEquals(0, new BigDecimal("5").compareTo(dto.getVolume()));
+        assertEquals(NOW, dto.getLastTradeTime());
+
+        ticker.apply(millis(NOW.plusMinutes(1)), new BigDecimal("120"), new BigDecimal("2"));
+        dto = ticker.toTicker(PAIR, millis(NOW.plusMinutes(1)));
+        assertEquals(0, new BigDecimal("120").compareTo(dto.getHighRate()));
+        assertEquals(0, new BigDecimal("7").compareTo(dto.getVolume()));
+    }
+
+    @Test
+    public void raiseScaleForMoreDigits() {
+        PairTicker ticker = new PairTicker();
+        ticker.apply(millis(NOW), new BigDecimal("1.123456789"), new BigDecimal("1"));
+        ticker.apply(millis(NOW.plusMinutes(1)), new BigDecimal("0.000000001"), new BigDecimal("0.5"));
+
+        TickerDto dto = ticker.toTicker(PAIR, millis(NOW.plusMinutes(1)));
+        assertEquals(0, new BigDecimal("1.123456789").compareTo(dto.getOpenRate()));
+        assertEquals(0, new BigDecimal("0.000000001").compareTo(dto.getLowRate()));
+        assertEquals(0, new BigDecimal("1.5").compareTo(dto.getVolume()));
+    }
+
+    private static CandleModel candle(LocalDateTime openTime, String open, String close, String volume) {
+        return CandleModel.builder()
+                .candleOpenTime(openTime)
+                .openRate(new BigDecimal(open))
+                .closeRate(new BigDecimal(close))
+                .highRate(new BigDecimal(close).max(new BigDecimal(open)))
+                .lowRate(new BigDecimal(close).min(new BigDecimal(open)))
+                .volume(new BigDecimal(volume))
+                .build();
+    }
+
+    private static long millis(LocalDateTime time) {
+        return Timestamp.valueOf(time).getTime();
+    }
+}
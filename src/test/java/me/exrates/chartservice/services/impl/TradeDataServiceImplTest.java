@@ -0,0 +1,156 @@
+package me.exrates.chartservice.services.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.TradeDataDto;
+import me.exrates.chartservice.model.serializers.DeltaVarintCandleCodec;
+import me.exrates.chartservice.services.AsyncElasticsearchProcessingService;
+import me.exrates.chartservice.services.CandleCacheService;
+import me.exrates.chartservice.services.ElasticsearchProcessingService;
+import me.exrates.chartservice.services.PairOwnershipHandler;
+import me.exrates.chartservice.services.PairOwnershipService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TradeDataServiceImplTest {
+
+    private static final String BTC_USD = "BTC/USD";
+
+    private final List<PairExecutor> executors = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        executors.forEach(PairExecutor::destroy);
+    }
+
+    @Test
+    public void restartedNodeWithoutLeaseLeavesPairAlone() throws Exception {
+        final Path directory = Files.createTempDirectory("journal");
+        final Map<String, String> leases = new ConcurrentHashMap<>();
+
+        ElasticsearchProcessingService elasticsearchA = mock(ElasticsearchProcessingService.class);
+        TradeDataServiceImpl nodeA = newNode(directory.resolve("a"), new Ownership("a", leases), elasticsearchA, mock(CandleCacheService.class));
+        nodeA.handleReceivedTrade(trade(1, "10")).join();
+        nodeA.flush();
+
+        verify(elasticsearchA, atLeastOnce()).insert(any(CandleModel.class), eq(BTC_USD), any(BackDealInterval.class));
+
+        // node a stops without handing off, its lease expires and node b takes the pair
+        leases.clear();
+        ElasticsearchProcessingService elasticsearchB = mock(ElasticsearchProcessingService.class);
+        TradeDataServiceImpl nodeB = newNode(directory.resolve("b"), new Ownership("b", leases), elasticsearchB, mock(CandleCacheService.class));
+        nodeB.handleReceivedTrade(trade(2, "11")).join();
+        nodeB.flush();
+
+        verify(elasticsearchB, atLeastOnce()).insert(any(CandleModel.class), eq(BTC_USD), any(BackDealInterval.class));
+
+        ElasticsearchProcessingService elasticsearchRestarted = mock(ElasticsearchProcessingService.class);
+        CandleCacheService cacheRestarted = mock(CandleCacheService.class);
+        TradeDataServiceImpl restarted = newNode(directory.resolve("a"), new Ownership("a", leases), elasticsearchRestarted, cacheRestarted);
+        restarted.flush();
+
+        verify(elasticsearchRestarted, never()).insert(any(CandleModel.class), anyString(), any(BackDealInterval.class));
+        verify(elasticsearchRestarted, never()).update(any(CandleModel.class), anyString(), any(BackDealInterval.class));
+        verify(cacheRestarted, never()).putClosedCandle(anyString(), any(BackDealInterval.class), any(CandleModel.class));
+
+        // the pair comes back to node a without a handed off state, the dropped journal state is not revived
+        leases.put(BTC_USD, "a");
+
+        assertNull(restarted.getOpenCandle(BTC_USD, BackDealInterval.getSupported().get(0)));
+    }
+
+    private TradeDataServiceImpl newNode(Path directory, PairOwnershipService ownership,
+                                         ElasticsearchProcessingService elasticsearch, CandleCacheService cache) {
+        PairExecutor executor = new PairExecutor(new SimpleMeterRegistry(), 1, 100);
+        executors.add(executor);
+
+        TradeDataServiceImpl node = new TradeDataServiceImpl(elasticsearch, mock(AsyncElasticsearchProcessingService.class),
+                cache, executor, new CandleJournal(true, directory.toString(), 1000), new DeltaVarintCandleCodec(),
+                mock(ElasticsearchBulkWriter.class), ownership, new SimpleMeterRegistry(), 60000, 300000, 1024, 2000);
+        node.recover();
+        return node;
+    }
+
+    private static TradeDataDto trade(int orderId, String rate) {
+        TradeDataDto dto = new TradeDataDto();
+        dto.setPairName(BTC_USD);
+        dto.setOrderId(orderId);
+        dto.setExrate(new BigDecimal(rate));
+        dto.setAmountBase(BigDecimal.ONE);
+        dto.setTradeDate(LocalDateTime.now());
+        return dto;
+    }
+
+    /**
+     * Node of a cluster whose leases are kept in a map shared by all nodes.
+     */
+    private static final class Ownership implements PairOwnershipService {
+
+        private final String nodeId;
+        private final Map<String, String> leases;
+        private PairOwnershipHandler handler;
+
+        private Ownership(String nodeId, Map<String, String> leases) {
+            this.nodeId = nodeId;
+            this.leases = leases;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        @Override
+        public String getNodeQueue() {
+            return "trades." + nodeId;
+        }
+
+        @Override
+        public boolean isOwned(String pairName) {
+            return nodeId.equals(leases.get(pairName));
+        }
+
+        @Override
+        public boolean acquire(String pairName) {
+            final String holder = leases.putIfAbsent(pairName, nodeId);
+            if (isNull(holder) && !isNull(handler)) {
+                handler.onAcquired(pairName, null);
+            }
+            return isNull(holder) || nodeId.equals(holder);
+        }
+
+        @Override
+        public void forward(TradeDataDto dto) {
+        }
+
+        @Override
+        public void setHandler(PairOwnershipHandler handler) {
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package me.exrates.chartservice.utils;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.CandleModel;
+import me.exrates.chartservice.model.enums.IntervalType;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+public class CandleStreamsTest {
+
+    private static final BackDealInterval HOUR_1 = BackDealInterval.of(1, IntervalType.HOUR);
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2019, 7, 18, 0, 0);
+
+    @Test
+    public void fillGaps() {
+        List<CandleModel> filled = CandleStreams.fillGaps(Stream.of(
+                candle(DAY.plusHours(1), "10", "12", "3"),
+                candle(DAY.plusHours(4), "11", "9", "1")), HOUR_1, DAY.plusHours(6))
+                .collect(toList());
+
+        assertEquals(5, filled.size());
+        assertEquals(DAY.plusHours(1), filled.get(0).getCandleOpenTime());
+        assertEquals(DAY.plusHours(2), filled.get(1).getCandleOpenTime());
+        assertEquals(0, new BigDecimal("12").compareTo(filled.get(1).getOpenRate()));
+        assertEquals(0, new BigDecimal("12").compareTo(filled.get(2).getLowRate()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(filled.get(2).getVolume()));
+        assertEquals(DAY.plusHours(4), filled.get(3).getCandleOpenTime());
+        assertEquals(DAY.plusHours(5), filled.get(4).getCandleOpenTime());
+        assertEquals(0, new BigDecimal("9").compareTo(filled.get(4).getCloseRate()));
+    }
+
+    @Test
+    public void merge() {
+        List<CandleModel> merged = CandleStreams.merge(Stream.of(
+                candle(DAY.plusHours(1), "10", "12", "3"),
+                candle(DAY.plusHours(2), "12", "8", "1"),
+                candle(DAY.plusHours(5), "8", "9", "2")), BackDealInterval.of(4, IntervalType.HOUR))
+                .collect(toList());
+
+        assertEquals(2, merged.size());
+        assertEquals(DAY, merged.get(0).getCandleOpenTime());
+        assertEquals(0, new BigDecimal("10").compareTo(merged.get(0).getOpenRate()));
+        assertEquals(0, new BigDecimal("8").compareTo(merged.get(0).getCloseRate()));
+        assertEquals(0, new BigDecimal("12").compareTo(merged.get(0).getHighRate()));
+        assertEquals(0, new BigDecimal("8").compareTo(merged.get(0).getLowRate()));
+        assertEquals(0, new BigDecimal("4").compareTo(merged.get(0).getVolume()));
+        assertEquals(DAY.plusHours(4), merged.get(1).getCandleOpenTime());
+    }
+
+    private static CandleModel candle(LocalDateTime openTime, String open, String close, String volume) {
+        BigDecimal openRate = new BigDecimal(open);
+        BigDecimal closeRate = new BigDecimal(close);
+        return CandleModel.builder()
+                .openRate(openRate)
+                .closeRate(closeRate)
+                .highRate(openRate.max(closeRate))
+                .lowRate(openRate.min(closeRate))
+                .volume(new BigDecimal(volume))
+                .candleOpenTime(openTime)
+                .build();
+    }
+}
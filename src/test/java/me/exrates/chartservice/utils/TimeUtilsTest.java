@@ -0,0 +1,40 @@
+package me.exrates.chartservice.utils;
+
+import me.exrates.chartservice.model.BackDealInterval;
+import me.exrates.chartservice.model.enums.IntervalType;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeUtilsTest {
+
+    private static final LocalDateTime TRADE_DATE = LocalDateTime.of(2019, 7, 18, 13, 47, 12);
+
+    @Test
+    public void getNearestTimeBefore() {
+        assertEquals(LocalDateTime.of(2019, 7, 18, 13, 30),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(30, IntervalType.MINUTE), TRADE_DATE));
+        assertEquals(LocalDateTime.of(2019, 7, 18, 13, 0),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(1, IntervalType.HOUR), TRADE_DATE));
+        assertEquals(LocalDateTime.of(2019, 7, 18, 12, 0),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(4, IntervalType.HOUR), TRADE_DATE));
+        assertEquals(LocalDateTime.of(2019, 7, 18, 12, 0),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(12, IntervalType.HOUR), TRADE_DATE));
+        assertEquals(LocalDateTime.of(2019, 7, 18, 0, 0),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(1, IntervalType.DAY), TRADE_DATE));
+        assertEquals(LocalDateTime.of(2019, 7, 15, 0, 0),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(1, IntervalType.WEEK), TRADE_DATE));
+        assertEquals(LocalDateTime.of(2019, 7, 1, 0, 0),
+                TimeUtils.getNearestTimeBefore(new BackDealInterval(1, IntervalType.MONTH), TRADE_DATE));
+    }
+
+    @Test
+    public void getNextTime() {
+        assertEquals(LocalDateTime.of(2019, 8, 1, 0, 0),
+                TimeUtils.getNextTime(new BackDealInterval(1, IntervalType.MONTH), LocalDateTime.of(2019, 7, 1, 0, 0)));
+        assertEquals(LocalDateTime.of(2019, 7, 18, 14, 0),
+                TimeUtils.getNextTime(new BackDealInterval(30, IntervalType.MINUTE), LocalDateTime.of(2019, 7, 18, 13, 30)));
+    }
+}